@@ -0,0 +1,195 @@
+package agents;
+
+import static chess.Globals.*;
+import chess.PackedMove;
+import java.util.Arrays;
+
+/**
+ * Move ordering of one search thread. Moves are scored once after
+ * generation: the move from the transposition table first, then captures and
+ * promotions by MVV-LVA (most valuable victim, least valuable attacker), then
+ * the two killer moves of the ply, then the counter move to the previous
+ * move, then the remaining quiet moves by their history score. The search
+ * then picks the moves one by one with {@link #pickNext}, so a cutoff after
+ * the first few moves does not pay for sorting the rest.
+ */
+public class MoveOrdering {
+
+    private static final int HASH_MOVE_SCORE = 1 << 30;
+    private static final int CAPTURE_SCORE = 1 << 28;
+    private static final int KILLER_SCORE = 1 << 27;
+    private static final int COUNTER_MOVE_SCORE = 1 << 26;
+    // History scores are halved when one reaches this, so they stay below the counter move score
+    private static final int HISTORY_LIMIT = 1 << 20;
+
+    // Two quiet moves per ply which caused a cutoff in a sibling node
+    private final int[][] killers;
+    // Indexed by color, source and destination of quiet moves
+    private final int[][][] history = new int[2][64][64];
+    // Indexed by source and destination of the previous move
+    private final int[][] counterMoves = new int[64][64];
+
+    /**
+     * @param maxPly the deepest ply killer moves are kept for
+     */
+    public MoveOrdering(int maxPly) {
+        killers = new int[maxPly][2];
+    }
+
+    /**
+     * Forgets the killer moves and ages the history scores, called before the
+     * search of a new move
+     */
+    public void newSearch() {
+        for (int[] plyKillers : killers) {
+            plyKillers[0] = PackedMove.NO_MOVE;
+            plyKillers[1] = PackedMove.NO_MOVE;
+        }
+        ageHistory(3);
+    }
+
+    /**
+     * Forgets the killer moves, counter moves and history scores, as if the
+     * ordering were new
+     */
+    public void clear() {
+        for (int[] plyKillers : killers) {
+            plyKillers[0] = PackedMove.NO_MOVE;
+            plyKillers[1] = PackedMove.NO_MOVE;
+        }
+        for (int[][] colorHistory : history) {
+            for (int[] fromHistory : colorHistory) {
+                Arrays.fill(fromHistory, 0);
+            }
+        }
+        for (int[] fromCounterMoves : counterMoves) {
+            Arrays.fill(fromCounterMoves, PackedMove.NO_MOVE);
+        }
+    }
+
+    /**
+     * @param moves the generated moves
+     * @param scores receives the score of every move, at the same index
+     * @param from index of the first move
+     * @param to index after the last move
+     * @param hashMove the move of the transposition table in the format of
+     * {@link TranspositionTable#toHashMove(int)}, NO_MOVE if there is none
+     * @param ply distance to the root
+     * @param previousMove the move leading to the position, NO_MOVE at the root
+     */
+    public void score(int[] moves, int[] scores, int from, int to, int hashMove, int ply, int previousMove) {
+        int counterMove = previousMove == PackedMove.NO_MOVE ? PackedMove.NO_MOVE
+                : counterMoves[PackedMove.getSource(previousMove)][PackedMove.getDest(previousMove)];
+        int[] plyKillers = killers[ply];
+        for (int i = from; i < to; i++) {
+            int move = moves[i];
+            if (hashMove != PackedMove.NO_MOVE && TranspositionTable.toHashMove(move) == hashMove) {
+                scores[i] = HASH_MOVE_SCORE;
+            } else if (!isQuiet(move)) {
+                scores[i] = captureScore(move);
+            } else if (move == plyKillers[0]) {
+                scores[i] = KILLER_SCORE + 1;
+            } else if (move == plyKillers[1]) {
+                scores[i] = KILLER_SCORE;
+            } else if (move == counterMove) {
+                scores[i] = COUNTER_MOVE_SCORE;
+            } else {
+                scores[i] = history[PackedMove.getColor(move)][PackedMove.getSource(move)][PackedMove.getDest(move)];
+            }
+        }
+    }
+
+    /**
+     * Scores captures and promotions by MVV-LVA only, for the quiescence
+     * search
+     */
+    public static void scoreCaptures(int[] moves, int[] scores, int from, int to) {
+        for (int i = from; i < to; i++) {
+            scores[i] = captureScore(moves[i]);
+        }
+    }
+
+    /**
+     * Swaps the best scored move of the remaining ones to the given index
+     *
+     * @param moves the moves, as scored before
+     * @param scores the scores of the moves
+     * @param index the index to fill, moves before it were picked already
+     * @param to index after the last move
+     * @return the picked move
+     */
+    public static int pickNext(int[] moves, int[] scores, int index, int to) {
+        int best = index;
+        for (int i = index + 1; i < to; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        int move = moves[best];
+        if (best != index) {
+            moves[best] = moves[index];
+            moves[index] = move;
+            int score = scores[best];
+            scores[best] = scores[index];
+            scores[index] = score;
+        }
+        return move;
+    }
+
+    /**
+     * Remembers a move which caused a beta cutoff, only quiet moves are
+     * remembered since captures are ordered well anyway
+     *
+     * @param move the move
+     * @param depth the remaining depth of the node, deeper cutoffs count more
+     * @param ply distance to the root
+     * @param previousMove the move leading to the position, NO_MOVE at the root
+     */
+    public void cutoff(int move, int depth, int ply, int previousMove) {
+        if (!isQuiet(move)) {
+            return;
+        }
+        int[] plyKillers = killers[ply];
+        if (plyKillers[0] != move) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move;
+        }
+        if (previousMove != PackedMove.NO_MOVE) {
+            counterMoves[PackedMove.getSource(previousMove)][PackedMove.getDest(previousMove)] = move;
+        }
+        int[] fromHistory = history[PackedMove.getColor(move)][PackedMove.getSource(move)];
+        int dest = PackedMove.getDest(move);
+        fromHistory[dest] += depth * depth;
+        if (fromHistory[dest] >= HISTORY_LIMIT) {
+            ageHistory(1);
+        }
+    }
+
+    /**
+     * @param score the ordering score of a move
+     * @return true if the move is a quiet move ordered by its history only,
+     * i.e. none of the moves the ordering expects most from
+     */
+    static boolean isHistoryOrdered(int score) {
+        return score < COUNTER_MOVE_SCORE;
+    }
+
+    private void ageHistory(int shift) {
+        for (int[][] colorHistory : history) {
+            for (int[] fromHistory : colorHistory) {
+                for (int dest = 0; dest < 64; dest++) {
+                    fromHistory[dest] >>= shift;
+                }
+            }
+        }
+    }
+
+    static boolean isQuiet(int move) {
+        return !PackedMove.isCapture(move) && PackedMove.getPromotion(move) == NO_PIECE_INDEX;
+    }
+
+    private static int captureScore(int move) {
+        return CAPTURE_SCORE + (PackedMove.getCaptured(move) + PackedMove.getPromotion(move)) * PIECE_INDEX_COUNT
+                - PackedMove.getPiece(move);
+    }
+}
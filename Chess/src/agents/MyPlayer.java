@@ -2,174 +2,892 @@ package agents;
 
 import static chess.Globals.*;
 import chess.Board;
+import chess.GameState;
 import chess.Move;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.Random;
+import chess.PackedMove;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MyPlayer implements Player {
 
+    public static final int DEFAULT_HASH_MEGABYTES = 64;
+    /**
+     * Score of a mate on the board, a mate found n plies from the root scores
+     * MATE_SCORE - n, being mated the negation of it
+     */
+    public static final int MATE_SCORE = 30000;
+    // Mates are never further from the root than this
+    private static final int MAX_MATE_PLIES = 1000;
+
+    // Kept between moves, so the search of the next move starts with what was learned before
+    private final TranspositionTable table;
+    // The main thinker and its helpers, one per thread of the pool, both live as long as the player
+    private final Thinker[] thinkers;
+    private final ExecutorService pool;
+    // Set to end the current search, the thinkers check it every few nodes
+    private final AtomicBoolean stop = new AtomicBoolean();
+    private boolean ponder;
+    private long nodeLimit = Long.MAX_VALUE;
+    private int depthLimit = Thinker.MAX_DEPTH;
+    private volatile SearchListener listener;
+    // The search on the opponent's time, null if there is none, with the key of the position it expects
+    private CountDownLatch pondering;
+    private long ponderKey;
+    private long ponderStart;
+
+    // Statistics of the last chooseMove
+    private long lastNodes;
+    private long lastNanos;
+    private int lastDepth;
+    private long[] lastDepthNanos = new long[0];
+    private int lastScore;
+    private int[] lastPrincipalVariation = new int[0];
+
+    public MyPlayer() {
+        this(DEFAULT_HASH_MEGABYTES, 1);
+    }
+
+    /**
+     * @param hashMegabytes size of the transposition table
+     * @param threads number of threads searching in parallel, all helpers
+     * share the transposition table with the main thread (lazy SMP)
+     */
+    public MyPlayer(int hashMegabytes, int threads) {
+        this(hashMegabytes, threads, EnumSet.allOf(Pruning.class));
+    }
+
+    /**
+     * @param hashMegabytes size of the transposition table
+     * @param threads number of threads searching in parallel, all helpers
+     * share the transposition table with the main thread (lazy SMP)
+     * @param pruning the selective search techniques to use
+     */
+    public MyPlayer(int hashMegabytes, int threads, Set<Pruning> pruning) {
+        table = new TranspositionTable(hashMegabytes);
+        thinkers = new Thinker[Math.max(1, threads)];
+        for (int i = 0; i < thinkers.length; i++) {
+            thinkers[i] = new Thinker(table, stop, pruning);
+        }
+        pool = Executors.newFixedThreadPool(thinkers.length, r -> {
+            // Daemon threads, so a forgotten player does not keep the program alive
+            Thread thread = new Thread(r, "MyPlayer search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param ponder true to keep searching on the opponent's time, assuming
+     * the reply the last search expected. If the opponent plays it, the next
+     * chooseMove continues that search, otherwise the search is dropped.
+     * Only worth it if the opponent does not need the processor itself, e.g.
+     * a human.
+     */
+    public void setPonder(boolean ponder) {
+        this.ponder = ponder;
+        if (!ponder) {
+            stopPondering();
+        }
+    }
+
+    /**
+     * @param nodes the number of positions the main thread may search per
+     * move, 0 for no limit. With a single thread and enough time, the search
+     * then does the same for the same position and random numbers, however
+     * fast the machine is.
+     */
+    public void setNodeLimit(long nodes) {
+        nodeLimit = nodes > 0 ? nodes : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param depth the deepest iteration to search per move, 0 for no limit.
+     * With a single thread and enough time, the search of a cleared player
+     * then does the same for the same position and random numbers, see
+     * {@link #clear()}.
+     */
+    public void setDepthLimit(int depth) {
+        depthLimit = depth > 0 ? Math.min(depth, Thinker.MAX_DEPTH) : Thinker.MAX_DEPTH;
+    }
+
+    /**
+     * @param listener told about every completed iteration of the search,
+     * null for none
+     */
+    public void setSearchListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
     @Override
     public Move chooseMove(Board b, int color, int milliseconds, Random random) {
-        Thinker thinker = new Thinker(b, color, random);
-        Thread t = new Thread(thinker);
-        t.start();
+        long start = System.nanoTime();
+        boolean ponderHit = pondering != null && b.hashKey() == ponderKey && b.getColorToMove() == color;
+        if (!ponderHit) {
+            stopPondering();
+        }
+        int[] moves = new int[MAX_MOVES];
+        if (b.generateMoves(moves, 0) == 1) {
+            // Forced move, nothing to think about
+            stopPondering();
+            lastNodes = 0;
+            lastNanos = System.nanoTime() - start;
+            lastDepth = 0;
+            lastDepthNanos = new long[0];
+            lastScore = 0;
+            lastPrincipalVariation = new int[] {moves[0]};
+            return PackedMove.toMove(moves[0]);
+        }
+        TimeManager timeManager = new TimeManager(start, milliseconds);
+        CountDownLatch done;
+        long searchStart;
+        if (ponderHit) {
+            // The search already runs on this position, it only gets its limits now
+            done = pondering;
+            searchStart = ponderStart;
+            pondering = null;
+            thinkers[0].limit(timeManager, nodeLimit, depthLimit);
+        } else {
+            done = startSearch(b, random, start, timeManager);
+            searchStart = start;
+        }
+        boolean interrupted = false;
         try {
-            Thread.sleep(milliseconds);
+            done.await(timeManager.remainingNanos(), TimeUnit.NANOSECONDS);
         } catch (InterruptedException ex) {
+            interrupted = true;
+        }
+        stop.set(true);
+        awaitUninterruptibly(done);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // The deepest completed iteration wins, the main thinker on equal depth
+        Thinker best = thinkers[0];
+        long nodes = 0;
+        long[] depthNanos = new long[Thinker.MAX_DEPTH];
+        for (Thinker thinker : thinkers) {
+            if (thinker.getDepth() > best.getDepth()) {
+                best = thinker;
+            }
+            nodes += thinker.nodes;
+            for (int depth = 1; depth < Thinker.MAX_DEPTH; depth++) {
+                long nanos = thinker.depthNanos[depth];
+                if (nanos != 0 && (depthNanos[depth] == 0 || nanos < depthNanos[depth])) {
+                    depthNanos[depth] = nanos;
+                }
+            }
+        }
+        lastNodes = nodes;
+        lastNanos = System.nanoTime() - searchStart;
+        lastDepth = best.getDepth();
+        lastDepthNanos = depthNanos;
+        lastScore = best.resultScore;
+        lastPrincipalVariation = best.resultPv;
+        // Taken before pondering prepares the thinkers again
+        Move move = best.getMove();
+        if (ponder && lastPrincipalVariation.length >= 2) {
+            startPondering(b, random);
         }
-        t.stop();
-        return thinker.optimalMove;
+        return move;
+    }
+
+    /**
+     * Starts all thinkers on the given position
+     *
+     * @param timeManager decides when the search ends, null to search until
+     * stopped
+     * @return counted down by every thinker once it is done
+     */
+    private CountDownLatch startSearch(Board b, Random random, long start, TimeManager timeManager) {
+        table.newSearch();
+        stop.set(false);
+        SearchListener searchListener = listener;
+        CountDownLatch done = new CountDownLatch(thinkers.length);
+        for (int i = 0; i < thinkers.length; i++) {
+            Thinker thinker = thinkers[i];
+            boolean main = i == 0;
+            // Every other helper starts one depth ahead of the main thinker, all break ties with their own random numbers
+            thinker.prepare(b, main ? random : new Random(random.nextLong()), 1 + i % 2, start,
+                    main && searchListener != null ? (depth, score, nodes, nanos, line) -> searchListener.iterationCompleted(depth, score, countNodes(), nanos, line) : null);
+            if (main) {
+                // Node and depth limits are known from the start, even if the time limit comes with chooseMove
+                thinker.limit(timeManager, nodeLimit, depthLimit);
+            }
+            pool.execute(() -> {
+                try {
+                    thinker.run();
+                } finally {
+                    if (main) {
+                        // Stopped by the time manager, or nothing left to search
+                        stop.set(true);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        return done;
+    }
+
+    // Ponders on the position after the chosen move and the reply the search expects
+    private void startPondering(Board b, Random random) {
+        Board expected = b.cloneIncompletely();
+        expected.makeMove(lastPrincipalVariation[0]);
+        expected.makeMove(lastPrincipalVariation[1]);
+        if (expected.gameState() == GameState.ONGOING) {
+            ponder(expected, new Random(random.nextLong()));
+        }
+    }
+
+    /**
+     * Starts searching the given position in the background without a time
+     * limit, until the next chooseMove or stopPondering. The node and depth
+     * limits set before apply already. If chooseMove gets the same position,
+     * it continues this search with its time limit instead of starting a new
+     * one, so a search may also be started before its time limit is known.
+     */
+    public void ponder(Board b, Random random) {
+        stopPondering();
+        ponderKey = b.hashKey();
+        ponderStart = System.nanoTime();
+        pondering = startSearch(b, random, ponderStart, null);
+    }
+
+    /**
+     * Ends the running search early, may be called from any thread. A
+     * chooseMove waiting for it returns the best move found so far, a
+     * search started with ponder keeps its result for the next chooseMove.
+     */
+    public void stop() {
+        stop.set(true);
+    }
+
+    // Helpers count while they run, so their share may lag a little
+    private long countNodes() {
+        long nodes = 0;
+        for (Thinker thinker : thinkers) {
+            nodes += thinker.nodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Ends the search on the opponent's time, if there is one
+     */
+    public void stopPondering() {
+        if (pondering != null) {
+            stop.set(true);
+            awaitUninterruptibly(pondering);
+            pondering = null;
+        }
+    }
+
+    // The thinkers return within a few nodes once stopped, their results are only read after that
+    private static void awaitUninterruptibly(CountDownLatch done) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forgets everything learned in earlier searches, i.e. the transposition
+     * table and the move ordering, so the next search does not depend on
+     * the ones before. Meant for unrelated positions, not between the moves
+     * of a game.
+     */
+    public void clear() {
+        stopPondering();
+        table.clear();
+        for (Thinker thinker : thinkers) {
+            thinker.ordering.clear();
+        }
+    }
+
+    /**
+     * Ends the search threads, the player can not be used afterwards. Not
+     * required before exiting, the threads do not keep the program alive.
+     */
+    public void shutdown() {
+        stopPondering();
+        pool.shutdown();
+    }
+
+    /**
+     * @return the number of positions all threads searched for the last
+     * move, including the pondering on it
+     */
+    public long getLastNodes() {
+        return lastNodes;
+    }
+
+    /**
+     * @return the duration of the search of the last move in nanoseconds,
+     * including the pondering on it
+     */
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * @return the depth of the search the last move was taken from
+     */
+    public int getLastDepth() {
+        return lastDepth;
+    }
+
+    /**
+     * @param depth a search depth
+     * @return nanoseconds until the first thread completed the depth during
+     * the last chooseMove, 0 if none did
+     */
+    public long getLastTimeToDepth(int depth) {
+        return depth < lastDepthNanos.length ? lastDepthNanos[depth] : 0;
+    }
+
+    /**
+     * @return the score of the last move in centipawns from the point of view
+     * of the moving color, see {@link #MATE_SCORE} for mates
+     */
+    public int getLastScore() {
+        return lastScore;
+    }
+
+    /**
+     * @return the line the last search expects, starting with the chosen move
+     */
+    public List<Move> getLastPrincipalVariation() {
+        return toMoves(lastPrincipalVariation);
+    }
+
+    private static List<Move> toMoves(int[] moves) {
+        List<Move> line = new ArrayList<>(moves.length);
+        for (int move : moves) {
+            line.add(PackedMove.toMove(move));
+        }
+        return line;
+    }
+
+    /**
+     * @param score a score of the search
+     * @return true if the score is a forced mate, for the side the score is
+     * from the point of view of if positive, otherwise against it
+     */
+    public static boolean isMateScore(int score) {
+        return Math.abs(score) > MATE_SCORE - MAX_MATE_PLIES;
+    }
+
+    /**
+     * Static evaluation of a position in centipawns from the point of view of
+     * the given color, positive values are good for that color
+     */
+    public static int getFitness(Board b, int color) {
+        // Material and piece-square scores are kept up to date by the board
+        int other = color ^ BLACK;
+        return b.getMaterial(color) + b.getPositionScore(color) - b.getMaterial(other) - b.getPositionScore(other);
     }
 
     private static class Thinker implements Runnable {
 
-        private final Board board;
-        private final int color;
-        private final Random random;
+        private static final int MAX_DEPTH = 64;
+        private static final int MOVE_BITS = 32;
+        // Must be a power of two
+        private static final int NODES_PER_STOP_CHECK = 1024;
+        // Beyond every score, including mates
+        private static final int INFINITE = MATE_SCORE + 1;
+        // Aspiration windows start at this depth, half a window is this many centipawns
+        private static final int ASPIRATION_DEPTH = 4;
+        private static final int ASPIRATION_WINDOW = 25;
+        private static final int MAX_ASPIRATION_WINDOW = 500;
+        // The null move is searched this much less deep, one more from NULL_MOVE_DEEP_LEVEL on
+        private static final int NULL_MOVE_MIN_LEVEL = 3;
+        private static final int NULL_MOVE_REDUCTION = 2;
+        private static final int NULL_MOVE_DEEP_LEVEL = 7;
+        // Late move reductions start with this move of a node and at this remaining depth
+        private static final int LMR_MIN_MOVE = 3;
+        private static final int LMR_MIN_LEVEL = 3;
+        // Indexed by the remaining depth, frontier nodes are those with a remaining depth up to 2
+        private static final int[] FUTILITY_MARGINS = {0, 125, 300};
+        private static final int[] RAZOR_MARGINS = {0, 250, 400};
+        // Reduction by remaining depth and move number, growing with the logarithm of both
+        private static final int[][] LMR_REDUCTIONS = new int[MAX_DEPTH][MAX_MOVES];
 
-        private Move optimalMove = null;
+        static {
+            for (int level = 1; level < MAX_DEPTH; level++) {
+                for (int index = 1; index < MAX_MOVES; index++) {
+                    LMR_REDUCTIONS[level][index] = (int) (0.75 + Math.log(level) * Math.log(index) / 2.25);
+                }
+            }
+        }
+
+        private final TranspositionTable table;
+        private final AtomicBoolean stop;
+        private final boolean nullMove;
+        private final boolean lateMoveReductions;
+        private final boolean futility;
+        private final boolean razoring;
+        // Set once the stop flag was seen, the search then unwinds without storing anything
+        private boolean aborted;
+        private Board board;
+        private Random random;
+        // Moves of all plies, every ply writes its moves behind those of its parent, with their ordering scores
+        private final int[] moveStack = new int[MAX_DEPTH * MAX_MOVES];
+        private final int[] scoreStack = new int[MAX_DEPTH * MAX_MOVES];
+        // The move being searched at every ply, for counter moves
+        private final int[] plyMoves = new int[MAX_DEPTH];
+        private final MoveOrdering ordering = new MoveOrdering(MAX_DEPTH);
+        // Triangular principal variation, row ply holds the best line from ply up to pvLength[ply]
+        private final int[][] pv = new int[MAX_DEPTH + 1][MAX_DEPTH + 1];
+        private final int[] pvLength = new int[MAX_DEPTH + 1];
+
+        private int startLevel;
+        private long startNanos;
+        // Only set for the main thinker, which reports every completed iteration to it
+        private SearchListener listener;
+        // Only limited for the main thinker, which ends the search when reaching them, the time limit set later on a ponder hit
+        private volatile long nodeLimit;
+        private volatile int depthLimit;
+        private volatile TimeManager timeManager;
+        // Depth of the last completed iteration and its move, with the score and principal variation, depth 0 before the first
+        private long result;
+        private int resultScore;
+        private int[] resultPv = new int[0];
+        // Only read once the search is done, the pool makes them visible
+        private long nodes;
+        private final long[] depthNanos = new long[MAX_DEPTH];
+
+        private Thinker(TranspositionTable table, AtomicBoolean stop, Set<Pruning> pruning) {
+            this.table = table;
+            this.stop = stop;
+            nullMove = pruning.contains(Pruning.NULL_MOVE);
+            lateMoveReductions = pruning.contains(Pruning.LATE_MOVE_REDUCTIONS);
+            futility = pruning.contains(Pruning.FUTILITY);
+            razoring = pruning.contains(Pruning.RAZORING);
+        }
 
-        private Thinker(Board board, int color, Random random) {
-            this.board = board;
-            this.color = color;
+        private void prepare(Board board, Random random, int startLevel, long startNanos, SearchListener listener) {
+            // The search works in place on its own copy
+            this.board = board.cloneIncompletely();
             this.random = random;
+            this.startLevel = startLevel;
+            this.startNanos = startNanos;
+            this.listener = listener;
+            limit(null, Long.MAX_VALUE, MAX_DEPTH);
+            ordering.newSearch();
+            aborted = false;
+            result = PackedMove.NO_MOVE;
+            resultScore = 0;
+            resultPv = new int[0];
+            nodes = 0;
+            Arrays.fill(depthNanos, 0);
+        }
+
+        /**
+         * Limits the search, may be called while it runs
+         *
+         * @param timeManager decides when the search ends, null to search
+         * until stopped
+         */
+        private void limit(TimeManager timeManager, long nodeLimit, int depthLimit) {
+            this.nodeLimit = nodeLimit;
+            this.depthLimit = depthLimit;
+            this.timeManager = timeManager;
         }
 
         public Move getMove() {
-            return optimalMove;
+            int move = (int) result;
+            return move == PackedMove.NO_MOVE ? null : PackedMove.toMove(move);
+        }
+
+        public int getDepth() {
+            return (int) (result >>> MOVE_BITS);
         }
 
         @Override
         public void run() {
-            int level = 1;
-            LinkedList<ValuedMove> possibleMoves = new LinkedList<>();
-            possibleMoves.addAll(board.getValidMoves(color).stream().map(move -> new ValuedMove(0, move)).collect(Collectors.toList()));
-            LinkedList<ValuedMove> executedMoves = new LinkedList<>();
-            for (;;) {
-                while (!possibleMoves.isEmpty()) {
-                    Move move = possibleMoves.remove().getMove();
-                    Board clone = board.cloneIncompletely();
-                    clone.executeMove(move);
-                    double v = evaluate(clone, level - 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, false, color);
-                    executedMoves.add(new ValuedMove(v, move));
-                }
-                Collections.sort(executedMoves);
-                int maxCount = 0;
-                double maxVal = executedMoves.getFirst().value;
-                for (ValuedMove valuedMove : executedMoves) {
-                    if (Math.abs(maxVal - valuedMove.value) < 1e-15) {
-                        maxCount++;
+            int count = board.generateMoves(moveStack, 0);
+            if (count == 0) {
+                return;
+            }
+            ordering.score(moveStack, scoreStack, 0, count, PackedMove.NO_MOVE, 0, PackedMove.NO_MOVE);
+            for (int i = 0; i < count; i++) {
+                MoveOrdering.pickNext(moveStack, scoreStack, i, count);
+            }
+            int[] rootMoves = Arrays.copyOf(moveStack, count);
+            int[] rootValues = new int[count];
+            int[][] rootPvs = new int[count][];
+            int[] bestMoves = new int[count];
+            // Stopped before the first iteration is done, the search still answers with the move ordered first
+            result = rootMoves[0];
+            resultPv = new int[] {rootMoves[0]};
+            int score = 0;
+            for (int level = startLevel; level < MAX_DEPTH; level++) {
+                int window = ASPIRATION_WINDOW;
+                boolean aspiration = level >= ASPIRATION_DEPTH && !isMateScore(score);
+                int alpha = aspiration ? score - window : -INFINITE;
+                int beta = aspiration ? score + window : INFINITE;
+                int bestCount;
+                while (true) {
+                    bestCount = searchRoot(level, alpha, beta, rootMoves, rootValues, rootPvs, bestMoves);
+                    if (aborted) {
+                        // Unfinished iterations are thrown away, the result stays that of the last completed one
+                        return;
+                    }
+                    int value = rootValues[0];
+                    window *= 2;
+                    if (value <= alpha && alpha != -INFINITE) {
+                        alpha = window > MAX_ASPIRATION_WINDOW ? -INFINITE : value - window;
+                    } else if (value >= beta && beta != INFINITE) {
+                        beta = window > MAX_ASPIRATION_WINDOW ? INFINITE : value + window;
                     } else {
                         break;
                     }
                 }
-                optimalMove = maxCount == 0 ? executedMoves.getFirst().move : executedMoves.get(random.nextInt(maxCount)).move;
-                possibleMoves.addAll(executedMoves);
-                executedMoves.clear();
-                level += 2;
+                score = rootValues[0];
+                int index = random.nextInt(bestCount);
+                int optimalMove = bestMoves[index];
+                // The chosen move is searched first in the next iteration
+                for (int i = 0; i < count; i++) {
+                    if (rootMoves[i] == optimalMove) {
+                        int[] movePv = rootPvs[i];
+                        System.arraycopy(rootMoves, 0, rootMoves, 1, i);
+                        System.arraycopy(rootValues, 0, rootValues, 1, i);
+                        System.arraycopy(rootPvs, 0, rootPvs, 1, i);
+                        rootMoves[0] = optimalMove;
+                        rootValues[0] = score;
+                        rootPvs[0] = movePv;
+                        break;
+                    }
+                }
+                result = ((long) level << MOVE_BITS) | optimalMove;
+                resultScore = score;
+                resultPv = rootPvs[0];
+                depthNanos[level] = System.nanoTime() - startNanos;
+                if (listener != null) {
+                    listener.iterationCompleted(level, score, nodes, depthNanos[level], toMoves(resultPv));
+                }
+                if (level >= depthLimit) {
+                    return;
+                }
+                if (isMateScore(score) && level >= MATE_SCORE - Math.abs(score)) {
+                    // Every line up to the mate was searched, deeper iterations can not find a shorter one
+                    return;
+                }
+                TimeManager manager = timeManager;
+                if (manager != null && manager.iterationCompleted(optimalMove, score)) {
+                    return;
+                }
             }
         }
 
-        public double getFitness(Board b, int color) {
-            double fitness = 0;
-            byte[][] figures = b.getFigures();
-            for (byte[] row : figures) {
-                for (int j = 0; j < row.length; j++) {
-                    byte fig = (byte) (row[j] & NO_COLOR_MASK);
-                    if (fig == EMPTY_FIELD) {
-                        continue;
+        /**
+         * Searches all root moves, the first one with the full window and the
+         * others with a null window just below the best score, so a move as
+         * good as the best one is still searched exactly and takes part in
+         * the random choice between equally good moves.
+         *
+         * @return the number of equally good best moves written to bestMoves,
+         * the root moves are left sorted by value, best first
+         */
+        private int searchRoot(int level, int alpha, int beta, int[] rootMoves, int[] rootValues, int[][] rootPvs, int[] bestMoves) {
+            int count = rootMoves.length;
+            int best = -INFINITE;
+            int bestCount = 0;
+            for (int i = 0; i < count; i++) {
+                int move = rootMoves[i];
+                int lower = i == 0 ? alpha : Math.max(alpha, best - 1);
+                plyMoves[0] = move;
+                board.makeMove(move);
+                int value;
+                if (i == 0) {
+                    value = -search(level - 1, -beta, -lower, 1, 0, true);
+                } else {
+                    value = -search(level - 1, -lower - 1, -lower, 1, 0, false);
+                    if (value > lower && !aborted) {
+                        value = -search(level - 1, -beta, -lower, 1, 0, true);
                     }
-                    double value = PIECE_VALUE[fig & NO_COLOR_MASK];
-                    switch (fig) {
-                        case PAWN:
-                            value = 1;
-                            break;
-                        case ROOK:
-                            value = 5;
-                            break;
-                        case BISHOP:
-                        case KNIGHT:
-                            value = 3.3;
-                            break;
-                        case QUEEN:
-                            value = 9;
-                            break;
-                        case KING:
-                            value = 1000_000;
+                }
+                board.unmakeMove();
+                if (aborted) {
+                    return 0;
+                }
+                rootValues[i] = value;
+                if (i == 0 || value > lower) {
+                    // Searched with an open window, so the value and the line are exact
+                    int[] line = new int[pvLength[1] + 1];
+                    line[0] = move;
+                    System.arraycopy(pv[1], 0, line, 1, pvLength[1]);
+                    rootPvs[i] = line;
+                    if (value > best) {
+                        best = value;
+                        bestCount = 0;
                     }
-                    fitness += (color == (row[j] & BLACK) ? value : -value);
+                    bestMoves[bestCount++] = move;
+                }
+                if (value >= beta) {
+                    break;
                 }
             }
-            return fitness;
+            // Stable insertion sort by value, best first, for the next iteration
+            for (int i = 1; i < count; i++) {
+                int move = rootMoves[i];
+                int value = rootValues[i];
+                int[] movePv = rootPvs[i];
+                int j = i - 1;
+                for (; j >= 0 && rootValues[j] < value; j--) {
+                    rootMoves[j + 1] = rootMoves[j];
+                    rootValues[j + 1] = rootValues[j];
+                    rootPvs[j + 1] = rootPvs[j];
+                }
+                rootMoves[j + 1] = move;
+                rootValues[j + 1] = value;
+                rootPvs[j + 1] = movePv;
+            }
+            return bestCount;
         }
 
-        private double evaluate(Board board, int level, double alpha, double beta, boolean max, int color) {
-            if (board.isGameover()) {
-                if (board.isMat(color)) {
-                    return Double.NEGATIVE_INFINITY;
-                } else if (board.isMat(color ^ BLACK)) {
-                    return Double.POSITIVE_INFINITY;
-                } else {
+        /**
+         * Counts a node and checks whether the search has to end
+         */
+        private boolean isStopped() {
+            if (((++nodes & (NODES_PER_STOP_CHECK - 1)) == 0 && stop.get()) || nodes >= nodeLimit) {
+                aborted = true;
+            }
+            return aborted;
+        }
+
+        /**
+         * Principal variation search in negamax form, scores are from the point
+         * of view of the color to move. Only the first move of a node is
+         * searched with the full window, the others with a null window, which
+         * is only opened again if a move turns out better. Outside the
+         * principal variation the enabled {@link Pruning} techniques cut the
+         * tree further.
+         */
+        private int search(int level, int alpha, int beta, int ply, int offset, boolean pvNode) {
+            pvLength[ply] = 0;
+            if (isStopped()) {
+                return 0;
+            }
+            // Mate distance pruning, no line from here can beat a shorter mate found already
+            alpha = Math.max(alpha, -MATE_SCORE + ply);
+            beta = Math.min(beta, MATE_SCORE - ply - 1);
+            if (alpha >= beta) {
+                return alpha;
+            }
+            // Draws by rule are told by the counters and the key history, mate and stalemate by the moves generated below
+            if (board.getMoveCount() >= 100) {
+                // Checkmate takes precedence over the fifty move rule, the rare case is worth a full classification
+                return board.gameState() == GameState.CHECKMATE ? -MATE_SCORE + ply : 0;
+            }
+            if (board.isThreefoldRepetition()) {
+                return 0;
+            }
+            if (level <= 0) {
+                return quiesce(alpha, beta, ply, offset);
+            }
+            long key = board.hashKey();
+            long entry = table.probe(key);
+            int hashMove = PackedMove.NO_MOVE;
+            if (entry != TranspositionTable.NO_ENTRY) {
+                hashMove = TranspositionTable.getMove(entry);
+                // Principal variation nodes are always searched, which keeps the line complete
+                if (!pvNode && TranspositionTable.getDepth(entry) >= level) {
+                    int score = fromHashScore(TranspositionTable.getScore(entry), ply);
+                    int bound = TranspositionTable.getBound(entry);
+                    if (bound == TranspositionTable.BOUND_EXACT
+                            || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                            || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+            int colorToMove = board.getColorToMove();
+            boolean inCheck = board.isCheck(colorToMove);
+            // Pruning is never done on the principal variation, in check or while mates are in reach
+            boolean prune = !pvNode && !inCheck && !isMateScore(alpha) && !isMateScore(beta);
+            int staticValue = prune ? getFitness(board, colorToMove) : 0;
+            if (prune && razoring && level < RAZOR_MARGINS.length && staticValue + RAZOR_MARGINS[level] <= alpha) {
+                int value = quiesce(alpha, alpha + 1, ply, offset);
+                if (aborted) {
                     return 0;
                 }
+                if (level == 1 || value <= alpha) {
+                    return value;
+                }
             }
-            if (level == 0) {
-                return getFitness(board, color);
+            if (prune && nullMove && level >= NULL_MOVE_MIN_LEVEL && staticValue >= beta
+                    && plyMoves[ply - 1] != PackedMove.NO_MOVE && board.hasNonPawnMaterial(colorToMove)) {
+                int reduction = NULL_MOVE_REDUCTION + (level >= NULL_MOVE_DEEP_LEVEL ? 1 : 0);
+                plyMoves[ply] = PackedMove.NO_MOVE;
+                board.makeNullMove();
+                int value = -search(level - 1 - reduction, -beta, -beta + 1, ply + 1, offset, false);
+                board.unmakeNullMove();
+                if (aborted) {
+                    return 0;
+                }
+                if (value >= beta) {
+                    // A mate found after passing is not proven, so only beta is claimed then
+                    return isMateScore(value) ? beta : value;
+                }
             }
-            List<Move> moves = board.getValidMoves();
-            if (max) {
-                double v = Double.NEGATIVE_INFINITY;
-                for (Move move : moves) {
-                    Board clone = board.cloneIncompletely();
-                    clone.executeMove(move);
-                    v = Double.max(v, evaluate(clone, level - 1, alpha, beta, false, color));
-                    alpha = Double.max(alpha, v);
-                    if (beta <= alpha) {
-                        break;
+            boolean futile = prune && futility && level < FUTILITY_MARGINS.length
+                    && staticValue + FUTILITY_MARGINS[level] <= alpha;
+            int alphaOrig = alpha;
+            int previousMove = plyMoves[ply - 1];
+            int end = board.generateMoves(moveStack, offset);
+            if (end == offset) {
+                return inCheck ? -MATE_SCORE + ply : 0;
+            }
+            ordering.score(moveStack, scoreStack, offset, end, hashMove, ply, previousMove);
+            int bestMove = PackedMove.NO_MOVE;
+            int best = -INFINITE;
+            for (int i = offset; i < end; i++) {
+                int move = MoveOrdering.pickNext(moveStack, scoreStack, i, end);
+                int index = i - offset;
+                plyMoves[ply] = move;
+                board.makeMove(move);
+                boolean quiet = index > 0 && MoveOrdering.isQuiet(move) && !board.isCheck(board.getColorToMove());
+                if (futile && quiet) {
+                    // Not even a good position can lift this move to alpha
+                    board.unmakeMove();
+                    best = Math.max(best, staticValue + FUTILITY_MARGINS[level]);
+                    continue;
+                }
+                int value;
+                if (index == 0) {
+                    value = -search(level - 1, -beta, -alpha, ply + 1, end, pvNode);
+                } else {
+                    int reduction = 0;
+                    if (lateMoveReductions && quiet && !inCheck && index >= LMR_MIN_MOVE && level >= LMR_MIN_LEVEL
+                            && MoveOrdering.isHistoryOrdered(scoreStack[i])) {
+                        // Searched at least to depth 1
+                        reduction = Math.min(LMR_REDUCTIONS[level][Math.min(index, MAX_MOVES - 1)], level - 2);
+                    }
+                    value = -search(level - 1 - reduction, -alpha - 1, -alpha, ply + 1, end, false);
+                    if (reduction > 0 && value > alpha && !aborted) {
+                        value = -search(level - 1, -alpha - 1, -alpha, ply + 1, end, false);
+                    }
+                    if (value > alpha && value < beta && !aborted) {
+                        value = -search(level - 1, -beta, -alpha, ply + 1, end, true);
                     }
                 }
-                return v;
-            } else {
-                double v = Double.POSITIVE_INFINITY;
-                for (Move move : moves) {
-                    Board clone = board.cloneIncompletely();
-                    clone.executeMove(move);
-                    v = Double.min(v, evaluate(clone, level - 1, alpha, beta, true, color));
-                    beta = Double.min(beta, v);
-                    if (beta <= alpha) {
-                        break;
+                board.unmakeMove();
+                if (aborted) {
+                    return 0;
+                }
+                if (value > best) {
+                    best = value;
+                    bestMove = move;
+                    if (value > alpha) {
+                        alpha = value;
+                        pv[ply][0] = move;
+                        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+                        pvLength[ply] = pvLength[ply + 1] + 1;
+                        if (alpha >= beta) {
+                            ordering.cutoff(move, level, ply, previousMove);
+                            break;
+                        }
                     }
                 }
-                return v;
             }
+            int bound = best <= alphaOrig ? TranspositionTable.BOUND_UPPER
+                    : best >= beta ? TranspositionTable.BOUND_LOWER : TranspositionTable.BOUND_EXACT;
+            table.store(key, level, bound, toHashScore(best, ply), bestMove);
+            return best;
         }
 
-        private static class ValuedMove implements Comparable<ValuedMove> {
-
-            private final double value;
-            private final Move move;
-
-            public ValuedMove(double value, Move move) {
-                this.value = value;
-                this.move = move;
+        /**
+         * Searches captures and promotions only, until the position is quiet,
+         * so the static evaluation is not taken in the middle of an exchange.
+         * The side to move may always stand pat, i.e. keep the static
+         * evaluation instead of capturing, unless it is in check, then all
+         * moves are searched. Captures losing material by static exchange
+         * evaluation are skipped.
+         */
+        private int quiesce(int alpha, int beta, int ply, int offset) {
+            if (isStopped()) {
+                return 0;
             }
-
-            public double getValue() {
-                return value;
+            int colorToMove = board.getColorToMove();
+            if (offset + MAX_MOVES > moveStack.length) {
+                // Out of move stack, only reached by extremely long capture sequences
+                return getFitness(board, colorToMove);
             }
-
-            public Move getMove() {
-                return move;
+            boolean inCheck = board.isCheck(colorToMove);
+            int best;
+            int end;
+            if (inCheck) {
+                end = board.generateMoves(moveStack, offset);
+                if (end == offset) {
+                    return -MATE_SCORE + ply;
+                }
+                best = -INFINITE;
+            } else {
+                best = getFitness(board, colorToMove);
+                if (best >= beta) {
+                    return best;
+                }
+                alpha = Math.max(alpha, best);
+                end = board.generateCaptures(moveStack, offset);
             }
+            MoveOrdering.scoreCaptures(moveStack, scoreStack, offset, end);
+            for (int i = offset; i < end; i++) {
+                int move = MoveOrdering.pickNext(moveStack, scoreStack, i, end);
+                if (!inCheck) {
+                    int promotion = PackedMove.getPromotion(move);
+                    if ((promotion != NO_PIECE_INDEX && promotion != QUEEN_INDEX) || board.staticExchange(move) < 0) {
+                        continue;
+                    }
+                }
+                board.makeMove(move);
+                int value = -quiesce(-beta, -alpha, ply + 1, end);
+                board.unmakeMove();
+                if (aborted) {
+                    return 0;
+                }
+                if (value > best) {
+                    best = value;
+                    if (value > alpha) {
+                        alpha = value;
+                        if (alpha >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
 
-            @Override
-            public int compareTo(ValuedMove o) {
-                return Double.compare(o.value, value);
+        // Mate scores count the plies from the root, the table keeps them counted from the position instead
+        private static int toHashScore(int score, int ply) {
+            if (isMateScore(score)) {
+                return score > 0 ? score + ply : score - ply;
             }
+            return score;
+        }
 
+        private static int fromHashScore(int score, int ply) {
+            if (isMateScore(score)) {
+                return score > 0 ? score - ply : score + ply;
+            }
+            return score;
         }
     }
 
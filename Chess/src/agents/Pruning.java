@@ -0,0 +1,31 @@
+package agents;
+
+/**
+ * Selective search techniques of {@link MyPlayer}, which search some moves
+ * less deep than others or not at all. Each one can be switched off on its
+ * own, to measure what it is worth in games.
+ */
+public enum Pruning {
+    /**
+     * Lets the opponent move twice with a reduced depth, if it still can not
+     * get below beta the node is cut off. Not used without pieces other than
+     * pawns, where passing would often be the best move (zugzwang).
+     */
+    NULL_MOVE,
+    /**
+     * Searches quiet moves late in the move order less deep, more so the
+     * later the move and the deeper the search, and searches them again if
+     * they turn out better than expected
+     */
+    LATE_MOVE_REDUCTIONS,
+    /**
+     * Skips quiet moves near the leaves if the static evaluation is so far
+     * below alpha that a quiet move can not make up for it
+     */
+    FUTILITY,
+    /**
+     * Drops into the quiescence search near the leaves if the static
+     * evaluation is far below alpha, and returns if that confirms it
+     */
+    RAZORING
+}
@@ -0,0 +1,25 @@
+package agents;
+
+import chess.Move;
+import java.util.List;
+
+/**
+ * Gets told about the progress of the search of {@link MyPlayer}, e.g. to
+ * show it to the user
+ */
+public interface SearchListener {
+
+    /**
+     * Called by the main search thread after every completed iteration, so it
+     * should return quickly
+     *
+     * @param depth the depth of the iteration
+     * @param score the score in centipawns from the point of view of the
+     * moving color, see {@link MyPlayer#MATE_SCORE} for mates
+     * @param nodes the number of positions all threads searched so far
+     * @param nanos nanoseconds since the search started
+     * @param principalVariation the line the search expects, starting with
+     * the best move
+     */
+    void iterationCompleted(int depth, int score, long nodes, long nanos, List<Move> principalVariation);
+}
@@ -0,0 +1,84 @@
+package agents;
+
+import chess.Board;
+import java.util.Random;
+
+/**
+ * Reports how the lazy SMP search of {@link MyPlayer} scales with the number
+ * of threads: nodes per second, the depth reached and the time needed to
+ * reach the depth the single threaded search completes.
+ *
+ * Usage: SearchScaling [-threads N] [-time ms] [-hash MB], threads are
+ * doubled from 1 up to N.
+ */
+public class SearchScaling {
+
+    private static final String[] POSITIONS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+    };
+
+    public static void main(String[] args) {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int time = 5000;
+        int hash = MyPlayer.DEFAULT_HASH_MEGABYTES;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-threads":
+                        maxThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-time":
+                        time = Integer.parseInt(args[++i]);
+                        break;
+                    case "-hash":
+                        hash = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.out.println("Usage: SearchScaling [-threads N] [-time ms] [-hash MB]");
+            System.exit(2);
+            return;
+        }
+        // Depths the single threaded search completes, the time to reach them is compared
+        int[] targetDepths = new int[POSITIONS.length];
+        double baseNps = 0;
+        long baseTime = 0;
+        System.out.println("threads\tNPS\tspeedup\tdepth\ttime to depth\tspeedup");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long nodes = 0;
+            long nanos = 0;
+            long timeToDepth = 0;
+            int depths = 0;
+            for (int i = 0; i < POSITIONS.length; i++) {
+                Board board = new Board(POSITIONS[i]);
+                // A new player per position, so the transposition table starts empty
+                MyPlayer player = new MyPlayer(hash, threads);
+                player.chooseMove(board, board.getColorToMove(), time, new Random(i));
+                player.shutdown();
+                if (threads == 1) {
+                    targetDepths[i] = player.getLastDepth();
+                }
+                nodes += player.getLastNodes();
+                nanos += player.getLastNanos();
+                depths += player.getLastDepth();
+                long reached = player.getLastTimeToDepth(targetDepths[i]);
+                timeToDepth += reached != 0 ? reached : time * 1_000_000L;
+            }
+            double nps = nodes * 1e9 / nanos;
+            if (threads == 1) {
+                baseNps = nps;
+                baseTime = timeToDepth;
+            }
+            System.out.printf("%d\t%.0f\t%.2f\t%.1f\t%d ms\t%.2f%n", threads, nps, nps / baseNps,
+                    depths / (double) POSITIONS.length, timeToDepth / 1_000_000, baseTime / (double) timeToDepth);
+        }
+        System.exit(0);
+    }
+}
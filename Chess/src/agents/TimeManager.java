@@ -0,0 +1,88 @@
+package agents;
+
+import chess.PackedMove;
+
+/**
+ * Decides when the iterative deepening of {@link MyPlayer} stops. The hard
+ * limit is the budget given for the move and is never exceeded. No new
+ * iteration is started after the soft limit, or if it is not expected to
+ * finish in time judging by how the previous iterations grew, since an
+ * unfinished iteration is thrown away. The limits shrink while the best move
+ * stays the same and grow when the best move changes or the score drops.
+ */
+public class TimeManager {
+
+    // Part of the budget after which no new iteration is started, before scaling
+    private static final double SOFT_SHARE = 0.3;
+    private static final double STABLE_SCALE = 0.5;
+    private static final double CHANGED_SCALE = 2.0;
+    private static final double DROP_SCALE = 1.5;
+    // Iterations with the same best move until the move counts as stable
+    private static final int STABLE_ITERATIONS = 3;
+    // Loss in centipawns from one iteration to the next which counts as a drop
+    private static final int SCORE_DROP = 30;
+    // Assumed ratio between the durations of two iterations until it was measured
+    private static final double DEFAULT_GROWTH = 4;
+    // Iterations answered from the transposition table take almost no time, the ratio after them means nothing
+    private static final double MAX_GROWTH = 8;
+
+    private final long startNanos;
+    private final long softNanos;
+    private final long hardNanos;
+    private int lastMove = PackedMove.NO_MOVE;
+    private int lastScore;
+    private int stableIterations;
+    private long lastElapsed;
+    private long lastIterationNanos;
+
+    /**
+     * @param startNanos when the search started, from System.nanoTime()
+     * @param milliseconds the budget for the move
+     */
+    public TimeManager(long startNanos, int milliseconds) {
+        this.startNanos = startNanos;
+        this.hardNanos = milliseconds * 1_000_000L;
+        this.softNanos = (long) (hardNanos * SOFT_SHARE);
+    }
+
+    /**
+     * @return nanoseconds left until the hard limit, at least 0
+     */
+    public long remainingNanos() {
+        return Math.max(0, hardNanos - (System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Called after every completed iteration of the main search
+     *
+     * @param move the best move of the iteration
+     * @param score its score in centipawns from the point of view of the
+     * searching color
+     * @return true if no further iteration should be started
+     */
+    public boolean iterationCompleted(int move, int score) {
+        double scale = 1;
+        if (lastMove != PackedMove.NO_MOVE) {
+            if (move == lastMove) {
+                stableIterations++;
+            } else {
+                stableIterations = 0;
+                scale = CHANGED_SCALE;
+            }
+            if (stableIterations >= STABLE_ITERATIONS) {
+                scale = STABLE_SCALE;
+            }
+            if (score < lastScore - SCORE_DROP) {
+                scale *= DROP_SCALE;
+            }
+        }
+        lastMove = move;
+        lastScore = score;
+        long elapsed = System.nanoTime() - startNanos;
+        long iterationNanos = elapsed - lastElapsed;
+        double growth = lastIterationNanos > 0 ? Math.max(2, Math.min(MAX_GROWTH, iterationNanos / (double) lastIterationNanos)) : DEFAULT_GROWTH;
+        lastElapsed = elapsed;
+        lastIterationNanos = iterationNanos;
+        return elapsed >= softNanos * scale || elapsed + iterationNanos * growth > hardNanos * Math.min(1, scale);
+    }
+}
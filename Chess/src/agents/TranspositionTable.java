@@ -0,0 +1,157 @@
+package agents;
+
+import chess.PackedMove;
+import java.util.Arrays;
+
+/**
+ * Fixed size hash table of search results, indexed by the Zobrist key of the
+ * position. It is shared by all search threads without locking: an entry is
+ * stored as two longs, the data and the data xor the key, so an entry torn by
+ * concurrent writes simply does not match on the next probe.
+ *
+ * Every bucket holds two entries, the first one is kept for the deepest
+ * search of the current move, the second one is always replaced. An entry
+ * pushed out of the first one moves to the second one if it is worth more
+ * than the entry there, i.e. is from a later search or as recent and deeper.
+ *
+ * Layout of the data, from the lowest bit: move (16 bits, see
+ * {@link #toHashMove(int)}), depth (8), bound (2), generation (6) and score
+ * (32).
+ */
+public class TranspositionTable {
+
+    public static final long NO_ENTRY = 0;
+
+    // Bound types, never 0 so that a stored entry is never NO_ENTRY
+    public static final int BOUND_EXACT = 1;
+    public static final int BOUND_LOWER = 2;
+    public static final int BOUND_UPPER = 3;
+
+    private static final int DEPTH_SHIFT = 16;
+    private static final int BOUND_SHIFT = 24;
+    private static final int GENERATION_SHIFT = 26;
+    private static final int SCORE_SHIFT = 32;
+    private static final int MAX_DEPTH = 255;
+    private static final int GENERATION_MASK = 63;
+
+    // Two longs per entry and two entries per bucket
+    private static final int BUCKET_LONGS = 4;
+    private static final int BUCKET_BYTES = BUCKET_LONGS * 8;
+
+    private final long[] entries;
+    private final int bucketMask;
+    private volatile int generation;
+
+    /**
+     * @param megabytes size of the table, rounded down to a power of two
+     * buckets
+     */
+    public TranspositionTable(int megabytes) {
+        long buckets = Math.max(1, megabytes * (1L << 20) / BUCKET_BYTES);
+        int count = Integer.highestOneBit((int) Math.min(1 << 28, buckets));
+        entries = new long[count * BUCKET_LONGS];
+        bucketMask = count - 1;
+    }
+
+    public int getSizeMegabytes() {
+        return (int) ((long) entries.length * 8 >> 20);
+    }
+
+    /**
+     * Marks the start of the search for a new move, entries of earlier
+     * searches may then be replaced even if they are deeper
+     */
+    public void newSearch() {
+        generation = (generation + 1) & GENERATION_MASK;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, 0);
+    }
+
+    /**
+     * @param key the Zobrist key of the position
+     * @return the data of the entry for the position, NO_ENTRY if there is
+     * none
+     */
+    public long probe(long key) {
+        int idx = ((int) key & bucketMask) * BUCKET_LONGS;
+        for (int i = idx; i < idx + BUCKET_LONGS; i += 2) {
+            long data = entries[i + 1];
+            if ((entries[i] ^ data) == key && data != NO_ENTRY) {
+                return data;
+            }
+        }
+        return NO_ENTRY;
+    }
+
+    /**
+     * @param key the Zobrist key of the position
+     * @param depth the remaining depth the score was searched with
+     * @param bound one of BOUND_EXACT, BOUND_LOWER and BOUND_UPPER
+     * @param score the score from the point of view of the color to move
+     * @param move the best move found, a packed move or NO_MOVE
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        int gen = generation;
+        long data = toHashMove(move) | ((long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT) | ((long) bound << BOUND_SHIFT)
+                | ((long) gen << GENERATION_SHIFT) | ((long) score << SCORE_SHIFT);
+        int idx = ((int) key & bucketMask) * BUCKET_LONGS;
+        long storedCheck = entries[idx];
+        long stored = entries[idx + 1];
+        boolean sameKey = (storedCheck ^ stored) == key;
+        if (sameKey || depth >= getDepth(stored) || getGeneration(stored) != gen) {
+            if (sameKey && move == PackedMove.NO_MOVE) {
+                // Keep the move of an earlier search of this position
+                data |= getMove(stored);
+            } else if (!sameKey) {
+                long second = entries[idx + 3];
+                // An entry of the same position there is outdated by the new one
+                if (worth(stored, gen) > worth(second, gen) || (entries[idx + 2] ^ second) == key) {
+                    entries[idx + 2] = storedCheck;
+                    entries[idx + 3] = stored;
+                }
+            }
+        } else {
+            idx += 2;
+        }
+        entries[idx] = key ^ data;
+        entries[idx + 1] = data;
+    }
+
+    /**
+     * Reduces a packed move to what identifies it within a position, the
+     * source and destination squares and the promotion piece index
+     */
+    public static int toHashMove(int move) {
+        return (move & 0xFFF) | (PackedMove.getPromotion(move) << 12);
+    }
+
+    public static int getMove(long entry) {
+        return (int) entry & 0xFFFF;
+    }
+
+    public static int getDepth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    public static int getBound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & 3;
+    }
+
+    public static int getScore(long entry) {
+        return (int) (entry >>> SCORE_SHIFT);
+    }
+
+    // Entries of the current search are worth more than older ones, deeper ones more than shallower ones
+    private static int worth(long entry, int gen) {
+        if (entry == NO_ENTRY) {
+            return -1;
+        }
+        return getDepth(entry) + (getGeneration(entry) == gen ? MAX_DEPTH + 1 : 0);
+    }
+
+    private static int getGeneration(long entry) {
+        return (int) (entry >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+}
@@ -0,0 +1,207 @@
+package chess;
+
+import static chess.Globals.*;
+import java.util.Random;
+
+/**
+ * Precomputed attack tables for the bitboard representation used by
+ * {@link Board}. Squares are numbered row * 8 + column, so a1 = 0, h1 = 7 and
+ * h8 = 63. Sliding attacks are looked up with magic multiplication, the magic
+ * factors are searched once when the class is loaded.
+ */
+public class Bitboards {
+
+    public static final long[] KNIGHT_ATTACKS = new long[64];
+    public static final long[] KING_ATTACKS = new long[64];
+    public static final long[][] PAWN_ATTACKS = new long[2][64];
+    // Squares strictly between two squares on a common rank, file or diagonal, empty otherwise
+    public static final long[][] BETWEEN = new long[64][64];
+    // The whole rank, file or diagonal through two squares, empty if they are not aligned
+    public static final long[][] LINE = new long[64][64];
+
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] ROOK_MAGICS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final long[][] ROOK_TABLE = new long[64][];
+
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final long[] BISHOP_MAGICS = new long[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final long[][] BISHOP_TABLE = new long[64][];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            KNIGHT_ATTACKS[square] = stepAttacks(square, KNIGHT_MOVES);
+            KING_ATTACKS[square] = stepAttacks(square, QUEEN_MOVE_DIRECTIONS);
+            for (int color : COLORS) {
+                long attacks = 0;
+                for (byte b : PAWN_ATTACKING_MOVES) {
+                    attacks |= stepAttacks(square, new byte[][]{{b, COLOR_FORWARD[color]}});
+                }
+                PAWN_ATTACKS[color][square] = attacks;
+            }
+            for (byte[] dir : QUEEN_MOVE_DIRECTIONS) {
+                long line = bit(square) | slidingAttacks(square, new byte[][]{dir}, 0)
+                        | slidingAttacks(square, new byte[][]{{(byte) -dir[0], (byte) -dir[1]}}, 0);
+                long between = 0;
+                int col = column(square) + dir[0];
+                int row = row(square) + dir[1];
+                while (onBoard(col, row)) {
+                    BETWEEN[square][square(col, row)] = between;
+                    LINE[square][square(col, row)] = line;
+                    between |= bit(square(col, row));
+                    col += dir[0];
+                    row += dir[1];
+                }
+            }
+        }
+        // Fixed seed, so the tables are identical on every start
+        Random random = new Random(0x5EED);
+        for (int square = 0; square < 64; square++) {
+            initMagic(square, ROOK_MOVE_DIRECTIONS, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_TABLE, random);
+            initMagic(square, BISHOP_MOVE_DIRECTIONS, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS, BISHOP_TABLE, random);
+        }
+    }
+
+    public static int square(int col, int row) {
+        return (row << 3) | col;
+    }
+
+    public static int column(int square) {
+        return square & 7;
+    }
+
+    public static int row(int square) {
+        return square >>> 3;
+    }
+
+    public static long bit(int square) {
+        return 1L << square;
+    }
+
+    public static long rookAttacks(int square, long occupancy) {
+        return ROOK_TABLE[square][(int) (((occupancy & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    public static long bishopAttacks(int square, long occupancy) {
+        return BISHOP_TABLE[square][(int) (((occupancy & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    public static long queenAttacks(int square, long occupancy) {
+        return rookAttacks(square, occupancy) | bishopAttacks(square, occupancy);
+    }
+
+    /**
+     * Attacks of a non-pawn piece
+     *
+     * @param pieceIndex one of KNIGHT_INDEX to KING_INDEX
+     * @param square the square the piece stands on
+     * @param occupancy all occupied squares, used to stop sliding pieces
+     * @return the attacked squares, including squares of own pieces
+     */
+    public static long pieceAttacks(int pieceIndex, int square, long occupancy) {
+        switch (pieceIndex) {
+            case KNIGHT_INDEX:
+                return KNIGHT_ATTACKS[square];
+            case BISHOP_INDEX:
+                return bishopAttacks(square, occupancy);
+            case ROOK_INDEX:
+                return rookAttacks(square, occupancy);
+            case QUEEN_INDEX:
+                return queenAttacks(square, occupancy);
+            case KING_INDEX:
+                return KING_ATTACKS[square];
+            default:
+                throw new IllegalStateException("illegalFigureException");
+        }
+    }
+
+    private static boolean onBoard(int col, int row) {
+        return col >= MIN_IDX && col <= MAX_IDX && row >= MIN_IDX && row <= MAX_IDX;
+    }
+
+    private static long stepAttacks(int square, byte[][] directions) {
+        long attacks = 0;
+        for (byte[] dir : directions) {
+            int col = column(square) + dir[0];
+            int row = row(square) + dir[1];
+            if (onBoard(col, row)) {
+                attacks |= bit(square(col, row));
+            }
+        }
+        return attacks;
+    }
+
+    // Slow ray walk, only used while filling the tables
+    private static long slidingAttacks(int square, byte[][] directions, long occupancy) {
+        long attacks = 0;
+        for (byte[] dir : directions) {
+            int col = column(square) + dir[0];
+            int row = row(square) + dir[1];
+            while (onBoard(col, row)) {
+                attacks |= bit(square(col, row));
+                if ((occupancy & bit(square(col, row))) != 0) {
+                    break;
+                }
+                col += dir[0];
+                row += dir[1];
+            }
+        }
+        return attacks;
+    }
+
+    // Squares whose occupancy matters for the attacks, the last square of every ray never blocks anything
+    private static long relevantMask(int square, byte[][] directions) {
+        long mask = 0;
+        for (byte[] dir : directions) {
+            int col = column(square) + dir[0];
+            int row = row(square) + dir[1];
+            while (onBoard(col + dir[0], row + dir[1])) {
+                mask |= bit(square(col, row));
+                col += dir[0];
+                row += dir[1];
+            }
+        }
+        return mask;
+    }
+
+    private static void initMagic(int square, byte[][] directions, long[] masks, long[] magics, int[] shifts, long[][] tables, Random random) {
+        long mask = relevantMask(square, directions);
+        int bits = Long.bitCount(mask);
+        int size = 1 << bits;
+        long[] occupancies = new long[size];
+        long[] attacks = new long[size];
+        // Enumerate all subsets of the mask (Carry-Rippler)
+        long subset = 0;
+        for (int i = 0; i < size; i++) {
+            occupancies[i] = subset;
+            attacks[i] = slidingAttacks(square, directions, subset);
+            subset = (subset - mask) & mask;
+        }
+        long[] table = new long[size];
+        int[] epoch = new int[size];
+        int attempt = 0;
+        search:
+        for (;;) {
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+            if (Long.bitCount((mask * magic) & 0xFF00_0000_0000_0000L) < 6) {
+                continue;
+            }
+            attempt++;
+            for (int i = 0; i < size; i++) {
+                int idx = (int) ((occupancies[i] * magic) >>> (64 - bits));
+                if (epoch[idx] != attempt) {
+                    epoch[idx] = attempt;
+                    table[idx] = attacks[i];
+                } else if (table[idx] != attacks[i]) {
+                    continue search;
+                }
+            }
+            masks[square] = mask;
+            magics[square] = magic;
+            shifts[square] = 64 - bits;
+            tables[square] = table;
+            return;
+        }
+    }
+}
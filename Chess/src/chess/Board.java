@@ -1,90 +1,452 @@
 package chess;
 
 import java.util.List;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import static chess.Bitboards.*;
 import static chess.Globals.*;
-import java.util.Iterator;
+import static chess.PackedMove.*;
 
 public class Board {
 
-    private final byte[][] figures;
-    private boolean[] canColorCastleQueensside;
-    private boolean[] canColorCastleKingsside;
+    // Mailbox indexed by square (row * 8 + column), kept in sync with the bitboards for fast lookups
+    private final byte[] squares = new byte[64];
+    // One bitboard per color and piece index
+    private final long[][] pieces = new long[2][PIECE_INDEX_COUNT];
+    private final long[] colorOccupancy = new long[2];
+    private long occupancy;
+    // Combination of the COLOR_CASTLE_QUEENSSIDE and COLOR_CASTLE_KINGSSIDE bits
+    private int castlingRights;
     private final LinkedList<Move> history;
     private int moveCount;
+    // Starts at 1 and grows after every move of black, only kept for the FEN
+    private int fullMoveNumber = 1;
     private int colorToMove;
+    // Square a pawn can be captured on en passant, only set if an opposing pawn can actually do so
+    private int enPassantSquare = NO_SQUARE;
+    // Zobrist key, kept up to date by every change of the position
+    private long hashKey;
+    // Running evaluation terms per color in centipawns, see PieceSquareTables
+    private final int[] material = new int[2];
+    private final int[] positionScore = new int[2];
+
+    // Undo stack for makeMove/unmakeMove, one entry per move made
+    private static final int UNDO_CAPACITY = 512;
+    private final int[] undoMoves = new int[UNDO_CAPACITY];
+    private final int[] undoCastlingRights = new int[UNDO_CAPACITY];
+    private final int[] undoEnPassantSquare = new int[UNDO_CAPACITY];
+    private final int[] undoMoveCount = new int[UNDO_CAPACITY];
+    private final long[] undoHashKey = new long[UNDO_CAPACITY];
+    private int undoSize;
+    // Keys of all earlier positions, oldest first, for detecting repetitions
+    private long[] keyHistory = new long[UNDO_CAPACITY];
+    private int keyHistorySize;
+    // Cached result of gameState(), null until computed for the current position
+    private GameState gameState;
+    // Buffer for the move generation behind gameState
+    private final int[] scratchMoves = new int[MAX_MOVES];
+    // Swap list of staticExchange, one entry per capture on the square
+    private final int[] seeGain = new int[34];
+
+    // Castling rights which survive a move touching the square, i.e. everything but the king and rook squares
+    private static final int[] CASTLING_RIGHTS_KEPT = new int[64];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            CASTLING_RIGHTS_KEPT[square] = ~0;
+        }
+        for (int color : COLORS) {
+            int row = COLOR_HOME_ROW[color];
+            CASTLING_RIGHTS_KEPT[square(MIN_IDX, row)] = ~COLOR_CASTLE_QUEENSSIDE[color];
+            CASTLING_RIGHTS_KEPT[square(MAX_IDX, row)] = ~COLOR_CASTLE_KINGSSIDE[color];
+            CASTLING_RIGHTS_KEPT[square(KING_POSITION, row)] = ~(COLOR_CASTLE_QUEENSSIDE[color] | COLOR_CASTLE_KINGSSIDE[color]);
+        }
+    }
 
     public byte[][] getFigures() {
-        byte[][] clone = new byte[figures.length][];
-        for (int i = 0; i < figures.length; i++) {
-            clone[i] = figures[i].clone();
+        byte[][] clone = new byte[8][8];
+        for (int square = 0; square < 64; square++) {
+            clone[column(square)][row(square)] = squares[square];
         }
         return clone;
     }
 
     public byte getFigure(int row, int column) {
-        return figures[column][row];
+        return squares[square(column, row)];
     }
 
     public void setFigure(int row, int column, byte figure) {
-        figures[column][row] = figure;
+        int square = square(column, row);
+        removePiece(square);
+        if (figure != EMPTY_FIELD) {
+            putPiece(square, figure);
+        }
+        gameState = null;
     }
 
     public boolean[] getCanColorCastleQueensside() {
-        return canColorCastleQueensside.clone();
+        return new boolean[]{canCastle(COLOR_CASTLE_QUEENSSIDE[WHITE]), canCastle(COLOR_CASTLE_QUEENSSIDE[BLACK])};
     }
 
     public boolean[] getCanColorCastleKingsside() {
-        return canColorCastleKingsside.clone();
+        return new boolean[]{canCastle(COLOR_CASTLE_KINGSSIDE[WHITE]), canCastle(COLOR_CASTLE_KINGSSIDE[BLACK])};
+    }
+
+    private boolean canCastle(int rights) {
+        return (castlingRights & rights) != 0;
     }
 
     public int getMoveCount() {
         return moveCount;
     }
 
+    /**
+     * @return the number of the current full move, starting at 1 and growing
+     * after every move of black
+     */
+    public int getFullMoveNumber() {
+        return fullMoveNumber;
+    }
+
     public int getColorToMove() {
         return colorToMove;
     }
 
+    public long getPieces(int color, int pieceIndex) {
+        return pieces[color][pieceIndex];
+    }
+
+    public long getOccupancy(int color) {
+        return colorOccupancy[color];
+    }
+
+    public long getOccupancy() {
+        return occupancy;
+    }
+
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    /**
+     * @param color the color to sum up
+     * @return the material of the color in centipawns, including the king
+     */
+    public int getMaterial(int color) {
+        return material[color];
+    }
+
+    /**
+     * @param color the color to sum up
+     * @return the piece-square bonus of all pieces of the color in centipawns
+     */
+    public int getPositionScore(int color) {
+        return positionScore[color];
+    }
+
+    /**
+     * @param color the color to look at
+     * @return true if the color has a piece other than pawns and its king,
+     * without one zugzwang is common
+     */
+    public boolean hasNonPawnMaterial(int color) {
+        long[] colorPieces = pieces[color];
+        return (colorPieces[KNIGHT_INDEX] | colorPieces[BISHOP_INDEX] | colorPieces[ROOK_INDEX] | colorPieces[QUEEN_INDEX]) != 0;
+    }
+
+    /**
+     * @return the 64 bit Zobrist key of the position, covering the pieces, the
+     * color to move, the castling rights and the en passant file
+     */
+    public long hashKey() {
+        return hashKey;
+    }
+
     public Board() {
         this(new byte[8][8], new boolean[]{true, true}, new boolean[]{true, true}, 0, new LinkedList<>(), WHITE);
         reset();
     }
 
     public Board(byte[][] figures, boolean[] canColorCastleQueensside, boolean[] canColorCastleKingsside, int moveCount, LinkedList<Move> history, int colorToMove) {
-        this.figures = figures;
-        this.canColorCastleQueensside = canColorCastleQueensside;
-        this.canColorCastleKingsside = canColorCastleKingsside;
+        for (int col = 0; col < 8; col++) {
+            for (int row = 0; row < 8; row++) {
+                if (figures[col][row] != EMPTY_FIELD) {
+                    putPiece(square(col, row), figures[col][row]);
+                }
+            }
+        }
+        for (int color : COLORS) {
+            if (canColorCastleQueensside[color]) {
+                castlingRights |= COLOR_CASTLE_QUEENSSIDE[color];
+            }
+            if (canColorCastleKingsside[color]) {
+                castlingRights |= COLOR_CASTLE_KINGSSIDE[color];
+            }
+        }
         this.history = history;
         this.moveCount = moveCount;
         this.colorToMove = colorToMove;
+        // Assumes the history starts with white
+        this.fullMoveNumber = 1 + history.size() / 2;
+        if (!history.isEmpty()) {
+            Move lastMove = history.getLast();
+            if ((byte) (lastMove.type & NO_COLOR_MASK) == PAWN && Math.abs(lastMove.destRow - lastMove.sourceRow) == 2) {
+                updateEnPassantSquare(lastMove.color, square(lastMove.destCol, (lastMove.sourceRow + lastMove.destRow) / 2));
+            }
+        }
+        hashKey = computeHashKey();
     }
 
-    public final void reset() {
-        for (int i = 0; i <= MAX_IDX; i++) {
-            for (int j = 2; j <= 5; j++) {
-                figures[i][j] = EMPTY_FIELD;
+    /**
+     * Sets up a position given in Forsyth-Edwards Notation, e.g.
+     * "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1". Only the
+     * piece placement and the color to move are required, so the first four
+     * fields of an EPD record are enough.
+     *
+     * @param fen the position
+     * @throws IllegalArgumentException if the position can not be parsed,
+     * a color does not have exactly one king or the color not to move is in
+     * check
+     */
+    public Board(String fen) {
+        this.history = new LinkedList<>();
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 2) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        String[] rows = fields[0].split("/", -1);
+        if (rows.length != 8) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        for (int row = MAX_IDX; row >= MIN_IDX; row--) {
+            int col = MIN_IDX;
+            for (char c : rows[MAX_IDX - row].toCharArray()) {
+                if (c >= '1' && c <= '8') {
+                    col += c - '0';
+                } else {
+                    if ("PNBRQKpnbrqk".indexOf(c) < 0 || col > MAX_IDX) {
+                        throw new IllegalArgumentException("Invalid FEN: " + fen);
+                    }
+                    byte type = (byte) (Character.toUpperCase(c) << 1);
+                    putPiece(square(col, row), (byte) (type | (Character.isUpperCase(c) ? WHITE : BLACK)));
+                    col++;
+                }
+                if (col > MAX_IDX + 1) {
+                    throw new IllegalArgumentException("Invalid FEN: " + fen);
+                }
+            }
+            if (col != MAX_IDX + 1) {
+                throw new IllegalArgumentException("Invalid FEN: " + fen);
+            }
+        }
+        if (fields[1].equals("w")) {
+            colorToMove = WHITE;
+        } else if (fields[1].equals("b")) {
+            colorToMove = BLACK;
+        } else {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        // The move generator and the material scores rely on one king per color, which the color to move can not take
+        if (Long.bitCount(pieces[WHITE][KING_INDEX]) != 1 || Long.bitCount(pieces[BLACK][KING_INDEX]) != 1
+                || isCheck(colorToMove ^ BLACK)) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        if (fields.length > 2 && !fields[2].equals("-")) {
+            for (char c : fields[2].toCharArray()) {
+                int color = Character.isUpperCase(c) ? WHITE : BLACK;
+                if (Character.toUpperCase(c) == 'K') {
+                    castlingRights |= COLOR_CASTLE_KINGSSIDE[color];
+                } else if (Character.toUpperCase(c) == 'Q') {
+                    castlingRights |= COLOR_CASTLE_QUEENSSIDE[color];
+                } else {
+                    throw new IllegalArgumentException("Invalid FEN: " + fen);
+                }
+            }
+        }
+        if (fields.length > 3 && !fields[3].equals("-")) {
+            // The square the pawn passed, behind it from the view of the color to move
+            char file = fields[3].charAt(0);
+            int passedRow = colorToMove == WHITE ? 5 : 2;
+            if (fields[3].length() != 2 || file < 'a' || file > 'h' || fields[3].charAt(1) - '1' != passedRow) {
+                throw new IllegalArgumentException("Invalid FEN: " + fen);
             }
+            updateEnPassantSquare(colorToMove ^ BLACK, square(file - 'a', passedRow));
         }
+        if (fields.length > 4) {
+            try {
+                moveCount = Integer.parseInt(fields[4]);
+                if (moveCount < 0) {
+                    throw new IllegalArgumentException("Invalid FEN: " + fen);
+                }
+                if (fields.length > 5) {
+                    fullMoveNumber = Math.max(1, Integer.parseInt(fields[5]));
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid FEN: " + fen);
+            }
+        }
+        hashKey = computeHashKey();
+    }
+
+    private Board(Board board, LinkedList<Move> history) {
+        System.arraycopy(board.squares, 0, squares, 0, 64);
         for (int color : COLORS) {
-            figures[0][COLOR_HOME_ROW[color]] = (byte) (color | ROOK);
-            figures[1][COLOR_HOME_ROW[color]] = (byte) (color | KNIGHT);
-            figures[2][COLOR_HOME_ROW[color]] = (byte) (color | BISHOP);
-            figures[3][COLOR_HOME_ROW[color]] = (byte) (color | QUEEN);
-            figures[4][COLOR_HOME_ROW[color]] = (byte) (color | KING);
-            figures[5][COLOR_HOME_ROW[color]] = (byte) (color | BISHOP);
-            figures[6][COLOR_HOME_ROW[color]] = (byte) (color | KNIGHT);
-            figures[7][COLOR_HOME_ROW[color]] = (byte) (color | ROOK);
+            System.arraycopy(board.pieces[color], 0, pieces[color], 0, PIECE_INDEX_COUNT);
+        }
+        colorOccupancy[WHITE] = board.colorOccupancy[WHITE];
+        colorOccupancy[BLACK] = board.colorOccupancy[BLACK];
+        occupancy = board.occupancy;
+        System.arraycopy(board.material, 0, material, 0, 2);
+        System.arraycopy(board.positionScore, 0, positionScore, 0, 2);
+        castlingRights = board.castlingRights;
+        this.history = history;
+        moveCount = board.moveCount;
+        fullMoveNumber = board.fullMoveNumber;
+        colorToMove = board.colorToMove;
+        enPassantSquare = board.enPassantSquare;
+        hashKey = board.hashKey;
+        keyHistory = Arrays.copyOf(board.keyHistory, board.keyHistory.length);
+        keyHistorySize = board.keyHistorySize;
+        gameState = board.gameState;
+    }
+
+    public final void reset() {
+        for (int square = 0; square < 64; square++) {
+            removePiece(square);
+        }
+        for (int color : COLORS) {
+            int homeRow = COLOR_HOME_ROW[color];
+            putPiece(square(0, homeRow), (byte) (color | ROOK));
+            putPiece(square(1, homeRow), (byte) (color | KNIGHT));
+            putPiece(square(2, homeRow), (byte) (color | BISHOP));
+            putPiece(square(3, homeRow), (byte) (color | QUEEN));
+            putPiece(square(4, homeRow), (byte) (color | KING));
+            putPiece(square(5, homeRow), (byte) (color | BISHOP));
+            putPiece(square(6, homeRow), (byte) (color | KNIGHT));
+            putPiece(square(7, homeRow), (byte) (color | ROOK));
             for (int i = 0; i < 8; i++) {
-                figures[i][COLOR_PAWN_ROW[color]] = (byte) (color | PAWN);
+                putPiece(square(i, COLOR_PAWN_ROW[color]), (byte) (color | PAWN));
             }
-            canColorCastleQueensside[color] = true;
-            canColorCastleKingsside[color] = true;
         }
+        this.castlingRights = COLOR_CASTLE_QUEENSSIDE[WHITE] | COLOR_CASTLE_KINGSSIDE[WHITE]
+                | COLOR_CASTLE_QUEENSSIDE[BLACK] | COLOR_CASTLE_KINGSSIDE[BLACK];
         this.history.clear();
+        this.undoSize = 0;
+        this.keyHistorySize = 0;
+        this.gameState = null;
         this.moveCount = 0;
+        this.fullMoveNumber = 1;
         this.colorToMove = WHITE;
+        this.enPassantSquare = NO_SQUARE;
+        this.hashKey = computeHashKey();
+    }
+
+    private long computeHashKey() {
+        long key = stateKey();
+        for (int square = 0; square < 64; square++) {
+            if (squares[square] != EMPTY_FIELD) {
+                key ^= Zobrist.pieceKey(squares[square], square);
+            }
+        }
+        return colorToMove == BLACK ? key ^ Zobrist.SIDE_KEY : key;
+    }
+
+    // Part of the key for castling rights and en passant
+    private long stateKey() {
+        long key = Zobrist.CASTLING_KEYS[castlingRights];
+        return enPassantSquare == NO_SQUARE ? key : key ^ Zobrist.EN_PASSANT_KEYS[column(enPassantSquare)];
+    }
+
+    private void putPiece(int square, byte figure) {
+        int color = figure & BLACK;
+        int index = TYPE_INDEX[figure & NO_COLOR_MASK];
+        long b = bit(square);
+        squares[square] = figure;
+        hashKey ^= Zobrist.pieceKey(figure, square);
+        material[color] += PieceSquareTables.MATERIAL_VALUES[index];
+        positionScore[color] += PieceSquareTables.POSITION_VALUES[color][index][square];
+        pieces[color][index] |= b;
+        colorOccupancy[color] |= b;
+        occupancy |= b;
+    }
+
+    private void removePiece(int square) {
+        byte figure = squares[square];
+        if (figure == EMPTY_FIELD) {
+            return;
+        }
+        int color = figure & BLACK;
+        int index = TYPE_INDEX[figure & NO_COLOR_MASK];
+        long b = ~bit(square);
+        squares[square] = EMPTY_FIELD;
+        hashKey ^= Zobrist.pieceKey(figure, square);
+        material[color] -= PieceSquareTables.MATERIAL_VALUES[index];
+        positionScore[color] -= PieceSquareTables.POSITION_VALUES[color][index][square];
+        pieces[color][index] &= b;
+        colorOccupancy[color] &= b;
+        occupancy &= b;
+    }
+
+    private void updateEnPassantSquare(int pawnColor, int passedSquare) {
+        // Only remember the square if an opposing pawn could capture there, which keeps equal positions equal
+        if ((PAWN_ATTACKS[pawnColor][passedSquare] & pieces[pawnColor ^ BLACK][PAWN_INDEX]) != 0) {
+            enPassantSquare = passedSquare;
+        } else {
+            enPassantSquare = NO_SQUARE;
+        }
+    }
+
+    /**
+     * @return the position in Forsyth-Edwards Notation, which the FEN
+     * constructor reads back. An en passant square is only given if a pawn
+     * can actually capture there.
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        for (int row = MAX_IDX; row >= MIN_IDX; row--) {
+            int empty = 0;
+            for (int col = MIN_IDX; col <= MAX_IDX; col++) {
+                byte figure = squares[square(col, row)];
+                if (figure == EMPTY_FIELD) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                char c = (char) ((figure & NO_COLOR_MASK) >>> 1);
+                fen.append((figure & BLACK) == WHITE ? c : Character.toLowerCase(c));
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (row > MIN_IDX) {
+                fen.append('/');
+            }
+        }
+        fen.append(colorToMove == WHITE ? " w " : " b ");
+        if (castlingRights == 0) {
+            fen.append('-');
+        } else {
+            for (int color : COLORS) {
+                if (canCastle(COLOR_CASTLE_KINGSSIDE[color])) {
+                    fen.append(color == WHITE ? 'K' : 'k');
+                }
+                if (canCastle(COLOR_CASTLE_QUEENSSIDE[color])) {
+                    fen.append(color == WHITE ? 'Q' : 'q');
+                }
+            }
+        }
+        fen.append(' ');
+        if (enPassantSquare == NO_SQUARE) {
+            fen.append('-');
+        } else {
+            fen.append(columnName(column(enPassantSquare))).append(row(enPassantSquare) + 1);
+        }
+        fen.append(' ').append(moveCount).append(' ').append(fullMoveNumber);
+        return fen.toString();
     }
 
     public Board cloneIncompletely() {
@@ -92,19 +454,11 @@ public class Board {
         if (!history.isEmpty()) {
             lastMove.add(history.getLast());
         }
-        return new Board(getFigures(),
-                canColorCastleQueensside.clone(),
-                canColorCastleKingsside.clone(),
-                moveCount, lastMove, colorToMove);
+        return new Board(this, lastMove);
     }
 
     public Board cloneCompletely() {
-        LinkedList<Move> copiedHistory = new LinkedList<>();
-        Collections.copy(history, copiedHistory);
-        return new Board(getFigures(),
-                canColorCastleQueensside.clone(),
-                canColorCastleKingsside.clone(),
-                moveCount, copiedHistory, colorToMove);
+        return new Board(this, new LinkedList<>(history));
     }
 
     public List<Move> getValidMoves() {
@@ -112,163 +466,291 @@ public class Board {
     }
 
     public List<Move> getValidMoves(int color, boolean checkPossible) {
-        List<Move> moves = new LinkedList<>();
+        int[] buf = new int[MAX_MOVES];
+        int end = generateMoves(color, buf, 0, checkPossible);
+        List<Move> moves = new ArrayList<>(end);
+        for (int i = 0; i < end; i++) {
+            moves.add(PackedMove.toMove(buf[i]));
+        }
+        moves.sort((m1, m2) -> (m2.isHit ? 10_000 : 0) - (m1.isHit ? 10_000 : 0) +
+                Double.compare(PIECE_VALUE[m2.newType & NO_COLOR_MASK], PIECE_VALUE[m1.newType & NO_COLOR_MASK]));
+        return moves;
+    }
+
+    /**
+     * Writes all legal moves of the color to move into the buffer as packed
+     * moves, without allocating anything
+     *
+     * @param buf the buffer, needs room for MAX_MOVES moves after offset
+     * @param offset index of the first move to write
+     * @return the index after the last move written
+     */
+    public int generateMoves(int[] buf, int offset) {
+        return generateMoves(colorToMove, buf, offset, true, false);
+    }
+
+    /**
+     * Writes the legal captures and promotions of the color to move into the
+     * buffer, for the quiescence search. Quiet moves are not generated at all.
+     *
+     * @param buf the buffer, needs room for MAX_MOVES moves after offset
+     * @param offset index of the first move to write
+     * @return the index after the last move written
+     */
+    public int generateCaptures(int[] buf, int offset) {
+        return generateMoves(colorToMove, buf, offset, true, true);
+    }
+
+    private int generateMoves(int color, int[] buf, int offset, boolean legal) {
+        return generateMoves(color, buf, offset, legal, false);
+    }
+
+    /**
+     * Move generator behind all public variants. With legal set, pinned pieces
+     * only move along their pin line and while in check only moves capturing
+     * or blocking the checker are generated, so no move has to be tried out.
+     * Without it the moves are pseudo-legal and castling is left out. With
+     * capturesOnly set only captures and promotions are generated.
+     */
+    private int generateMoves(int color, int[] buf, int offset, boolean legal, boolean capturesOnly) {
+        int end = offset;
         int otherColor = color ^ BLACK;
-        for (int col = 0; col < 8; col++) {
-            for (int row = 0; row < 8; row++) {
-                byte oldType = figures[col][row];
-                if (oldType != EMPTY_FIELD
-                        && (oldType & BLACK) == color) {
-                    byte colorlessType = (byte) (oldType & NO_COLOR_MASK);
-                    switch (colorlessType) {
-                        case PAWN: {
-                            int newRow = row + COLOR_FORWARD[color];
-                            if (newRow >= MIN_IDX && newRow <= MAX_IDX) {
-                                if (!history.isEmpty()) {// En passant
-                                    Move lastMove = history.getLast();
-                                    if (lastMove.type == PAWN && Math.abs(lastMove.destRow - lastMove.sourceRow) == 2
-                                            && row == COLOR_PAWN_ADVANCE_ROW[otherColor] && Math.abs(col - lastMove.destCol) == 1) {
-                                        moves.add(new Move(color, oldType, col, row, lastMove.destCol, newRow, true, oldType));
-                                    }
-                                }
-                                for (byte b : PAWN_ATTACKING_MOVES) {
-                                    int newColumn = col + b;
-                                    if (newColumn < MIN_IDX || newColumn > MAX_IDX) {
-                                        continue;
-                                    }
-                                    if (figures[newColumn][newRow] != 0 && (figures[newColumn][newRow] & BLACK) != color) {
-                                        if (newRow == COLOR_HOME_ROW[color]) {
-                                            moves.add(new Move(color, oldType, col, row, newColumn, newRow, true, QUEEN | color));
-                                            moves.add(new Move(color, oldType, col, row, newColumn, newRow, true, ROOK | color));
-                                            moves.add(new Move(color, oldType, col, row, newColumn, newRow, true, KNIGHT | color));
-                                            moves.add(new Move(color, oldType, col, row, newColumn, newRow, true, BISHOP | color));
-                                        } else {
-                                            moves.add(new Move(color, oldType, col, row, newColumn, newRow, true, oldType));
-                                        }
-                                    }
-                                }
-                                if (figures[col][newRow] == EMPTY_FIELD) {
-                                    if (newRow == COLOR_HOME_ROW[otherColor]) {
-                                        moves.add(new Move(color, oldType, col, row, col, newRow, false, QUEEN | color));
-                                        moves.add(new Move(color, oldType, col, row, col, newRow, false, ROOK | color));
-                                        moves.add(new Move(color, oldType, col, row, col, newRow, false, KNIGHT | color));
-                                        moves.add(new Move(color, oldType, col, row, col, newRow, false, BISHOP | color));
-                                    } else {
-                                        moves.add(new Move(color, oldType, col, row, col, newRow, false, oldType));
-                                        if (row == COLOR_PAWN_ROW[color] && figures[col][COLOR_PAWN_ADVANCE_ROW[color]] == EMPTY_FIELD) {
-                                            moves.add(new Move(color, oldType, col, row, col, COLOR_PAWN_ADVANCE_ROW[color], false, oldType));
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        break;
-                        case QUEEN:
-                        case ROOK:
-                        case BISHOP:
-                            // Movement of the above units is actually equal, only directions differ
-                            dirLoop:
-                            for (byte[] moveDirs : getMoveDirections(colorlessType)) {
-                                int curColumn = col + moveDirs[0];
-                                int curRow = row + moveDirs[1];
-                                while (curColumn >= MIN_IDX && curColumn <= MAX_IDX && curRow >= MIN_IDX && curRow <= MAX_IDX) {
-                                    if (figures[curColumn][curRow] == EMPTY_FIELD) {
-                                        moves.add(new Move(color, oldType, col, row, curColumn, curRow, false, oldType));
-                                    } else {
-                                        if ((figures[curColumn][curRow] & BLACK) != color) {
-                                            moves.add(new Move(color, oldType, col, row, curColumn, curRow, true, oldType));
-                                        }
-                                        continue dirLoop;
-                                    }
-                                    curColumn = curColumn + moveDirs[0];
-                                    curRow = curRow + moveDirs[1];
-                                }
-                            }
-                            break;
-                        case KNIGHT:
-                        case KING:
-                            // Again, the movement is equal, only how far they go in a step differs
-                            for (byte[] moveDirs : getMoveDirections(colorlessType)) {
-                                int curColumn = col + moveDirs[0];
-                                int curRow = row + moveDirs[1];
-                                if (curColumn >= MIN_IDX && curColumn <= MAX_IDX && curRow >= MIN_IDX && curRow <= MAX_IDX) {
-                                    if (figures[curColumn][curRow] == EMPTY_FIELD) {
-                                        moves.add(new Move(color, oldType, col, row, curColumn, curRow, false, oldType));
-                                    } else if ((figures[curColumn][curRow] & BLACK) != color) {
-                                        moves.add(new Move(color, oldType, col, row, curColumn, curRow, true, oldType));
-                                    }
-                                }
-                            }
-                            // Castling
-                            if (checkPossible && (canColorCastleQueensside[color] || canColorCastleKingsside[color]) && colorlessType == KING && !isCheck(color)) {
-                                List<Move> checkMoves = getValidMoves(otherColor, false);
-                                check:
-                                if (canColorCastleQueensside[color]) {
-                                    if (figures[KING_QUEENSSIDE_CASTLING][row] == EMPTY_FIELD
-                                            && figures[ROOK_KINGSSIDE_CASTLING][row] == EMPTY_FIELD) {
-                                        for (Move oppMove : checkMoves) {
-                                            if (oppMove.destCol == ROOK_QUEENSSIDE_CASTLING && oppMove.destRow == row) {
-                                                break check;
-                                            }
-                                        }
-                                        moves.add(new Move(color, oldType, col, row, KING_QUEENSSIDE_CASTLING, row, false, oldType));
-                                    }
-                                }
-                                check:
-                                if (canColorCastleKingsside[color]) {
-                                    if (figures[KING_KINGSSIDE_CASTLING][row] == EMPTY_FIELD
-                                            && figures[ROOK_KINGSSIDE_CASTLING][row] == EMPTY_FIELD) {
-                                        for (Move oppMove : checkMoves) {
-                                            if (oppMove.destCol == ROOK_KINGSSIDE_CASTLING && oppMove.destRow == row) {
-                                                break check;
-                                            }
-                                        }
-                                        moves.add(new Move(color, oldType, col, row, KING_KINGSSIDE_CASTLING, row, false, oldType));
-                                    }
-                                }
-                            }
-                            break;
-                        default:
-                            throw new IllegalStateException("illegalFigureException");
-                    }
+        long targets = capturesOnly ? colorOccupancy[otherColor] : ~colorOccupancy[color];
+        long kingBoard = pieces[color][KING_INDEX];
+        int king = Long.numberOfTrailingZeros(kingBoard);
+        // Destinations which resolve a check, everything while not in check
+        long checkMask = ~0L;
+        long pinned = 0;
+        long checkers = 0;
+        if (legal && kingBoard != 0) {
+            // The king must also not step back along the ray of a slider attacking it, hence the king is taken off the board
+            long occupancyWithoutKing = occupancy ^ kingBoard;
+            long kingTargets = KING_ATTACKS[king] & targets;
+            while (kingTargets != 0) {
+                int to = Long.numberOfTrailingZeros(kingTargets);
+                kingTargets &= kingTargets - 1;
+                if (attackersTo(to, otherColor, occupancyWithoutKing) == 0) {
+                    buf[end++] = create(color, king, to, KING_INDEX, pieceIndexAt(to), NO_PIECE_INDEX, 0);
                 }
             }
+            checkers = attackersTo(king, otherColor, occupancy);
+            if (checkers != 0) {
+                if ((checkers & (checkers - 1)) != 0) {
+                    // Double check, only the king can move
+                    return end;
+                }
+                checkMask = checkers | BETWEEN[king][Long.numberOfTrailingZeros(checkers)];
+            }
+            pinned = getPinnedPieces(color, king);
         }
-        if (checkPossible) {
-            Iterator<Move> it = moves.iterator();
-            while (it.hasNext()) {
-                Move move = it.next();
-                Board clone = cloneIncompletely();
-                clone.executeMove(move);
-                if (clone.isCheck(color)) {
-                    it.remove();
+        int forward = COLOR_FORWARD[color] * 8;
+        long pawns = pieces[color][PAWN_INDEX];
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            long allowed = (pinned & bit(from)) == 0 ? checkMask : checkMask & LINE[king][from];
+            int to = from + forward;
+            if ((occupancy & bit(to)) == 0) {
+                if ((allowed & bit(to)) != 0 && (!capturesOnly || row(to) == COLOR_HOME_ROW[otherColor])) {
+                    end = addPawnMoves(buf, end, color, from, to, NO_PIECE_INDEX);
+                }
+                int doubleTo = to + forward;
+                if (!capturesOnly && row(from) == COLOR_PAWN_ROW[color] && (occupancy & bit(doubleTo)) == 0 && (allowed & bit(doubleTo)) != 0) {
+                    buf[end++] = create(color, from, doubleTo, PAWN_INDEX, NO_PIECE_INDEX, NO_PIECE_INDEX, FLAG_DOUBLE_PUSH);
                 }
             }
+            long attacks = PAWN_ATTACKS[color][from] & colorOccupancy[otherColor] & allowed;
+            while (attacks != 0) {
+                int dest = Long.numberOfTrailingZeros(attacks);
+                attacks &= attacks - 1;
+                end = addPawnMoves(buf, end, color, from, dest, pieceIndexAt(dest));
+            }
+            // En passant, the square only belongs to the color to move
+            if (enPassantSquare != NO_SQUARE && color == colorToMove
+                    && (PAWN_ATTACKS[color][from] & bit(enPassantSquare)) != 0
+                    && (!legal || isLegalEnPassant(color, from, king, checkMask))) {
+                buf[end++] = create(color, from, enPassantSquare, PAWN_INDEX, PAWN_INDEX, NO_PIECE_INDEX, FLAG_EN_PASSANT);
+            }
         }
-        moves.sort((m1, m2) -> (m2.isHit ? 10_000 : 0) - (m1.isHit ? 10_000 : 0) +
-                Double.compare(PIECE_VALUE[m2.newType & NO_COLOR_MASK], PIECE_VALUE[m1.newType & NO_COLOR_MASK]));
-        return moves;
+        // With legal set the king moves have been generated above already
+        int lastIndex = legal && kingBoard != 0 ? QUEEN_INDEX : KING_INDEX;
+        for (int index = KNIGHT_INDEX; index <= lastIndex; index++) {
+            long bb = pieces[color][index];
+            while (bb != 0) {
+                int from = Long.numberOfTrailingZeros(bb);
+                bb &= bb - 1;
+                long attacks = pieceAttacks(index, from, occupancy) & targets & checkMask;
+                if ((pinned & bit(from)) != 0) {
+                    attacks &= LINE[king][from];
+                }
+                while (attacks != 0) {
+                    int to = Long.numberOfTrailingZeros(attacks);
+                    attacks &= attacks - 1;
+                    buf[end++] = create(color, from, to, index, pieceIndexAt(to), NO_PIECE_INDEX, 0);
+                }
+            }
+        }
+        if (legal && !capturesOnly && checkers == 0 && canCastle(COLOR_CASTLE_QUEENSSIDE[color] | COLOR_CASTLE_KINGSSIDE[color])) {
+            int row = COLOR_HOME_ROW[color];
+            int kingSquare = square(KING_POSITION, row);
+            if (squares[kingSquare] == (byte) (KING | color)) {
+                // The king may neither pass nor land on an attacked square
+                if (canCastle(COLOR_CASTLE_QUEENSSIDE[color]) && squares[square(MIN_IDX, row)] == (byte) (ROOK | color)
+                        && (occupancy & (bit(square(1, row)) | bit(square(KING_QUEENSSIDE_CASTLING, row)) | bit(square(ROOK_QUEENSSIDE_CASTLING, row)))) == 0
+                        && !isSquareAttacked(square(ROOK_QUEENSSIDE_CASTLING, row), otherColor)
+                        && !isSquareAttacked(square(KING_QUEENSSIDE_CASTLING, row), otherColor)) {
+                    buf[end++] = create(color, kingSquare, square(KING_QUEENSSIDE_CASTLING, row), KING_INDEX, NO_PIECE_INDEX, NO_PIECE_INDEX, FLAG_CASTLING);
+                }
+                if (canCastle(COLOR_CASTLE_KINGSSIDE[color]) && squares[square(MAX_IDX, row)] == (byte) (ROOK | color)
+                        && (occupancy & (bit(square(KING_KINGSSIDE_CASTLING, row)) | bit(square(ROOK_KINGSSIDE_CASTLING, row)))) == 0
+                        && !isSquareAttacked(square(ROOK_KINGSSIDE_CASTLING, row), otherColor)
+                        && !isSquareAttacked(square(KING_KINGSSIDE_CASTLING, row), otherColor)) {
+                    buf[end++] = create(color, kingSquare, square(KING_KINGSSIDE_CASTLING, row), KING_INDEX, NO_PIECE_INDEX, NO_PIECE_INDEX, FLAG_CASTLING);
+                }
+            }
+        }
+        return end;
     }
 
-    public List<Move> getValidMoves(int color) {
-        return getValidMoves(color, true);
+    /**
+     * Pieces of the given color which are the only piece between their king
+     * and an opposing slider, they may only move along that line
+     */
+    private long getPinnedPieces(int color, int king) {
+        long[] enemies = pieces[color ^ BLACK];
+        long snipers = (rookAttacks(king, 0) & (enemies[ROOK_INDEX] | enemies[QUEEN_INDEX]))
+                | (bishopAttacks(king, 0) & (enemies[BISHOP_INDEX] | enemies[QUEEN_INDEX]));
+        long pinned = 0;
+        while (snipers != 0) {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            long blockers = BETWEEN[king][sniper] & occupancy;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0) {
+                pinned |= blockers & colorOccupancy[color];
+            }
+        }
+        return pinned;
     }
 
-    private byte[][] getMoveDirections(byte type) {
-        switch (type) {
-            // We do not consider pawns here since the movement rules of pawns are vastly different anyways
-            case QUEEN:
-            case KING:
-                return QUEEN_MOVE_DIRECTIONS; // Since Queen and King move in the same directions
-            case ROOK:
-                return ROOK_MOVE_DIRECTIONS;
-            case BISHOP:
-                return BISHOP_MOVE_DIRECTIONS;
-            case KNIGHT:
-                return KNIGHT_MOVES;
-            default:
-                throw new IllegalStateException("illegalFigureException");
+    // En passant removes two pieces from a row at once, so pins alone do not cover it, the slider rays are simply recomputed
+    private boolean isLegalEnPassant(int color, int from, int king, long checkMask) {
+        int captured = enPassantSquare - COLOR_FORWARD[color] * 8;
+        if ((checkMask & (bit(enPassantSquare) | bit(captured))) == 0) {
+            return false;
         }
+        long occupancyAfter = (occupancy ^ bit(from) ^ bit(captured)) | bit(enPassantSquare);
+        long[] enemies = pieces[color ^ BLACK];
+        return (rookAttacks(king, occupancyAfter) & (enemies[ROOK_INDEX] | enemies[QUEEN_INDEX])) == 0
+                && (bishopAttacks(king, occupancyAfter) & (enemies[BISHOP_INDEX] | enemies[QUEEN_INDEX])) == 0;
+    }
+
+    private static int addPawnMoves(int[] buf, int end, int color, int from, int to, int captured) {
+        if (row(to) == COLOR_HOME_ROW[color ^ BLACK]) {
+            buf[end++] = create(color, from, to, PAWN_INDEX, captured, QUEEN_INDEX, 0);
+            buf[end++] = create(color, from, to, PAWN_INDEX, captured, ROOK_INDEX, 0);
+            buf[end++] = create(color, from, to, PAWN_INDEX, captured, KNIGHT_INDEX, 0);
+            buf[end++] = create(color, from, to, PAWN_INDEX, captured, BISHOP_INDEX, 0);
+        } else {
+            buf[end++] = create(color, from, to, PAWN_INDEX, captured, NO_PIECE_INDEX, 0);
+        }
+        return end;
+    }
+
+    private int pieceIndexAt(int square) {
+        return TYPE_INDEX[squares[square] & NO_COLOR_MASK];
+    }
+
+    /**
+     * Checks whether any piece of the given color attacks the square. Instead
+     * of generating the attacker's moves this looks outward from the square,
+     * e.g. a knight jump away from it for knights and along the rays for
+     * sliders.
+     *
+     * @param square the square to check
+     * @param byColor the attacking color
+     * @return true if the square is attacked
+     */
+    public boolean isSquareAttacked(int square, int byColor) {
+        long[] attackers = pieces[byColor];
+        return (KNIGHT_ATTACKS[square] & attackers[KNIGHT_INDEX]) != 0
+                // A pawn attacks the square if a pawn of the other color standing there would attack the pawn
+                || (PAWN_ATTACKS[byColor ^ BLACK][square] & attackers[PAWN_INDEX]) != 0
+                || (KING_ATTACKS[square] & attackers[KING_INDEX]) != 0
+                || (bishopAttacks(square, occupancy) & (attackers[BISHOP_INDEX] | attackers[QUEEN_INDEX])) != 0
+                || (rookAttacks(square, occupancy) & (attackers[ROOK_INDEX] | attackers[QUEEN_INDEX])) != 0;
+    }
+
+    /**
+     * Same lookup as isSquareAttacked, but returns the attacking pieces and
+     * lets the caller decide which squares block sliders
+     *
+     * @param square the square to check
+     * @param byColor the attacking color
+     * @param occupancy the occupied squares to use for sliders
+     * @return bitboard of the attacking pieces
+     */
+    public long attackersTo(int square, int byColor, long occupancy) {
+        long[] attackers = pieces[byColor];
+        return (KNIGHT_ATTACKS[square] & attackers[KNIGHT_INDEX])
+                | (PAWN_ATTACKS[byColor ^ BLACK][square] & attackers[PAWN_INDEX])
+                | (KING_ATTACKS[square] & attackers[KING_INDEX])
+                | (bishopAttacks(square, occupancy) & (attackers[BISHOP_INDEX] | attackers[QUEEN_INDEX]))
+                | (rookAttacks(square, occupancy) & (attackers[ROOK_INDEX] | attackers[QUEEN_INDEX]));
+    }
+
+    /**
+     * Static exchange evaluation: the material the moving color wins on the
+     * destination square if both sides keep recapturing there with their least
+     * valuable piece and may stop whenever that is better for them. Pins are
+     * not considered.
+     *
+     * @param move a legal packed move of this position
+     * @return the expected gain in centipawns, negative for losing captures
+     */
+    public int staticExchange(int move) {
+        int from = getSource(move);
+        int to = getDest(move);
+        int promotion = getPromotion(move);
+        int[] gain = seeGain;
+        int depth = 0;
+        long occ = occupancy;
+        if (isEnPassant(move)) {
+            occ ^= bit(to - COLOR_FORWARD[getColor(move)] * 8);
+        }
+        gain[0] = PieceSquareTables.MATERIAL_VALUES[getCaptured(move)];
+        int attackerValue = PieceSquareTables.MATERIAL_VALUES[getPiece(move)];
+        if (promotion != NO_PIECE_INDEX) {
+            attackerValue = PieceSquareTables.MATERIAL_VALUES[promotion];
+            gain[0] += attackerValue - PieceSquareTables.MATERIAL_VALUES[PAWN_INDEX];
+        }
+        int side = getColor(move);
+        long fromBit = bit(from);
+        while (fromBit != 0) {
+            depth++;
+            // What the other side has gained if it recaptures now, the loop below decides whether it does
+            gain[depth] = attackerValue - gain[depth - 1];
+            occ ^= fromBit;
+            // Recomputed with the pieces which captured taken off, so sliders behind them join in
+            long attackers = (attackersTo(to, WHITE, occ) | attackersTo(to, BLACK, occ)) & occ;
+            side ^= BLACK;
+            fromBit = 0;
+            for (int index = PAWN_INDEX; index < PIECE_INDEX_COUNT; index++) {
+                long candidates = attackers & pieces[side][index];
+                if (candidates != 0) {
+                    fromBit = candidates & -candidates;
+                    attackerValue = PieceSquareTables.MATERIAL_VALUES[index];
+                    break;
+                }
+            }
+        }
+        while (--depth > 0) {
+            gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+        }
+        return gain[0];
+    }
+
+    public List<Move> getValidMoves(int color) {
+        return getValidMoves(color, true);
     }
 
     public List<Move> getHistory() {
@@ -281,60 +763,190 @@ public class Board {
      * @param move the move to execute
      */
     public void executeMove(Move move) {
-        if (move.isHit && figures[move.destCol][move.destRow] == EMPTY_FIELD) {
-            // en passant
-            figures[move.destCol][move.destRow - (COLOR_FORWARD[move.color])] = EMPTY_FIELD;
-        }
-        figures[move.sourceCol][move.sourceRow] = EMPTY_FIELD;
-        figures[move.destCol][move.destRow] = move.newType;
-        byte type = (byte) (move.type & NO_COLOR_MASK);
-        if (type == KING) {
-            if (Math.abs(move.destCol - move.sourceCol) > 1) {
-                // castling
-                if (move.destCol == KING_QUEENSSIDE_CASTLING) {
-                    figures[ROOK_QUEENSSIDE_CASTLING][move.destRow] = figures[MIN_IDX][move.destRow];
-                    figures[MIN_IDX][move.destRow] = EMPTY_FIELD;
-                } else {
-                    figures[ROOK_KINGSSIDE_CASTLING][move.destRow] = figures[MAX_IDX][move.destRow];
-                    figures[MAX_IDX][move.destRow] = EMPTY_FIELD;
-                }
-            }
-            // Moving the king takes away the possibility to castle
-            canColorCastleKingsside[move.color] = false;
-            canColorCastleQueensside[move.color] = false;
-        }
-        // If there is another move to or from an initial rook position, then castling is disabled there too
-        if ((move.sourceRow % MAX_IDX == 0 && move.sourceCol % MAX_IDX == 0)
-                || (move.destRow % MAX_IDX == 0 && move.destCol % MAX_IDX == 0)) {
-            // check which rook position was affected
-            // might be multiple since one rook can hit another
-            if ((move.sourceRow == MIN_IDX && move.sourceCol == MIN_IDX)
-                    || (move.destRow == MIN_IDX && move.destCol == MIN_IDX)) {
-                canColorCastleQueensside[WHITE] = false;
-            }
-            if ((move.sourceRow == MAX_IDX && move.sourceCol == MIN_IDX)
-                    || (move.destRow == MAX_IDX && move.destCol == MIN_IDX)) {
-                canColorCastleQueensside[BLACK] = false;
+        applyMove(toPackedMove(move));
+        history.add(move);
+    }
+
+    /**
+     * Packs a move for this position, filling in what the Move object does not
+     * know such as the captured piece
+     *
+     * @param move a move of this position
+     * @return the packed move
+     */
+    public int toPackedMove(Move move) {
+        int source = square(move.sourceCol, move.sourceRow);
+        int dest = square(move.destCol, move.destRow);
+        int piece = TYPE_INDEX[move.type & NO_COLOR_MASK];
+        int captured = pieceIndexAt(dest);
+        int promotion = TYPE_INDEX[move.newType & NO_COLOR_MASK];
+        if (promotion == piece) {
+            promotion = NO_PIECE_INDEX;
+        }
+        int flags = 0;
+        if (piece == PAWN_INDEX) {
+            if (move.isHit && captured == NO_PIECE_INDEX) {
+                flags = FLAG_EN_PASSANT;
+                captured = PAWN_INDEX;
+            } else if (Math.abs(move.destRow - move.sourceRow) == 2) {
+                flags = FLAG_DOUBLE_PUSH;
             }
-            if ((move.sourceRow == MIN_IDX && move.sourceCol == MAX_IDX)
-                    || (move.destRow == MIN_IDX && move.destCol == MAX_IDX)) {
-                canColorCastleKingsside[WHITE] = false;
+        } else if (piece == KING_INDEX && Math.abs(move.destCol - move.sourceCol) > 1) {
+            flags = FLAG_CASTLING;
+        }
+        return create(move.color, source, dest, piece, captured, promotion, flags);
+    }
+
+    public void makeMove(Move move) {
+        makeMove(toPackedMove(move));
+    }
+
+    /**
+     * Executes a packed move in place and remembers what is needed to take it
+     * back with {@link #unmakeMove()}. Unlike executeMove the game history is
+     * left untouched, which makes this the method of choice while searching.
+     *
+     * @param move the packed move to execute, it is not checked beforehand
+     */
+    public void makeMove(int move) {
+        if (undoSize == UNDO_CAPACITY) {
+            throw new IllegalStateException("undoStackOverflow");
+        }
+        undoMoves[undoSize] = move;
+        undoCastlingRights[undoSize] = castlingRights;
+        undoEnPassantSquare[undoSize] = enPassantSquare;
+        undoMoveCount[undoSize] = moveCount;
+        undoHashKey[undoSize] = hashKey;
+        undoSize++;
+        applyMove(move);
+    }
+
+    /**
+     * Takes back the last move executed with makeMove
+     */
+    public void unmakeMove() {
+        undoSize--;
+        int move = undoMoves[undoSize];
+        int color = getColor(move);
+        int source = getSource(move);
+        int dest = getDest(move);
+        removePiece(dest);
+        putPiece(source, (byte) (INDEX_TYPE[getPiece(move)] | color));
+        if (isCastling(move)) {
+            if (column(dest) == KING_QUEENSSIDE_CASTLING) {
+                moveRook(square(ROOK_QUEENSSIDE_CASTLING, row(dest)), square(MIN_IDX, row(dest)));
+            } else {
+                moveRook(square(ROOK_KINGSSIDE_CASTLING, row(dest)), square(MAX_IDX, row(dest)));
             }
-            if ((move.sourceRow == MAX_IDX && move.sourceCol == MAX_IDX)
-                    || (move.destRow == MAX_IDX && move.destCol == MAX_IDX)) {
-                canColorCastleKingsside[BLACK] = false;
+        }
+        int captured = getCaptured(move);
+        if (captured != NO_PIECE_INDEX) {
+            putPiece(isEnPassant(move) ? dest - COLOR_FORWARD[color] * 8 : dest, (byte) (INDEX_TYPE[captured] | (color ^ BLACK)));
+        }
+        castlingRights = undoCastlingRights[undoSize];
+        enPassantSquare = undoEnPassantSquare[undoSize];
+        moveCount = undoMoveCount[undoSize];
+        if (color == BLACK) {
+            fullMoveNumber--;
+        }
+        // The piece updates above already restored their part of the key, the saved key covers the rest
+        hashKey = undoHashKey[undoSize];
+        colorToMove ^= BLACK;
+        keyHistorySize--;
+        gameState = null;
+    }
+
+    /**
+     * Passes the turn to the other color, which is not a legal move but lets
+     * the search ask what the opponent could do if it moved twice. Must not
+     * be called while in check, and is taken back with
+     * {@link #unmakeNullMove()}.
+     */
+    public void makeNullMove() {
+        if (undoSize == UNDO_CAPACITY) {
+            throw new IllegalStateException("undoStackOverflow");
+        }
+        undoMoves[undoSize] = NO_MOVE;
+        undoCastlingRights[undoSize] = castlingRights;
+        undoEnPassantSquare[undoSize] = enPassantSquare;
+        undoMoveCount[undoSize] = moveCount;
+        undoHashKey[undoSize] = hashKey;
+        undoSize++;
+        if (keyHistorySize == keyHistory.length) {
+            keyHistory = Arrays.copyOf(keyHistory, keyHistorySize * 2);
+        }
+        keyHistory[keyHistorySize++] = hashKey;
+        gameState = null;
+        hashKey ^= stateKey();
+        enPassantSquare = NO_SQUARE;
+        // Positions before the null move do not count as repetitions of those after it
+        moveCount = 0;
+        hashKey ^= stateKey() ^ Zobrist.SIDE_KEY;
+        colorToMove ^= BLACK;
+    }
+
+    /**
+     * Takes back the last null move executed with makeNullMove
+     */
+    public void unmakeNullMove() {
+        undoSize--;
+        enPassantSquare = undoEnPassantSquare[undoSize];
+        moveCount = undoMoveCount[undoSize];
+        hashKey = undoHashKey[undoSize];
+        colorToMove ^= BLACK;
+        keyHistorySize--;
+        gameState = null;
+    }
+
+    private void applyMove(int move) {
+        int color = getColor(move);
+        int source = getSource(move);
+        int dest = getDest(move);
+        if (keyHistorySize == keyHistory.length) {
+            keyHistory = Arrays.copyOf(keyHistory, keyHistorySize * 2);
+        }
+        keyHistory[keyHistorySize++] = hashKey;
+        gameState = null;
+        hashKey ^= stateKey();
+        if (isEnPassant(move)) {
+            removePiece(dest - COLOR_FORWARD[color] * 8);
+        } else {
+            removePiece(dest);
+        }
+        removePiece(source);
+        putPiece(dest, getNewType(move));
+        if (isCastling(move)) {
+            if (column(dest) == KING_QUEENSSIDE_CASTLING) {
+                moveRook(square(MIN_IDX, row(dest)), square(ROOK_QUEENSSIDE_CASTLING, row(dest)));
+            } else {
+                moveRook(square(MAX_IDX, row(dest)), square(ROOK_KINGSSIDE_CASTLING, row(dest)));
             }
         }
+        // Any move to or from a king or rook home square takes away the corresponding castling rights
+        castlingRights &= CASTLING_RIGHTS_KEPT[source] & CASTLING_RIGHTS_KEPT[dest];
 
-        if (move.isHit || type == PAWN) {
+        if (isCapture(move) || getPiece(move) == PAWN_INDEX) {
             moveCount = 0;
         } else {
             moveCount++;
         }
-        history.add(move);
+        if (color == BLACK) {
+            fullMoveNumber++;
+        }
+        if (isDoublePush(move)) {
+            updateEnPassantSquare(color, (source + dest) / 2);
+        } else {
+            enPassantSquare = NO_SQUARE;
+        }
+        hashKey ^= stateKey() ^ Zobrist.SIDE_KEY;
         colorToMove ^= BLACK;
     }
 
+    private void moveRook(int from, int to) {
+        putPiece(to, squares[from]);
+        removePiece(from);
+    }
+
     /*
     /**
      * Slow method to execute moves which includes a check whether the move is
@@ -378,48 +990,88 @@ public class Board {
         return true;
     }*/
     public Boolean canWhiteCastle() {
-        return canColorCastleQueensside[WHITE] || canColorCastleKingsside[WHITE];
+        return canCastle(COLOR_CASTLE_QUEENSSIDE[WHITE] | COLOR_CASTLE_KINGSSIDE[WHITE]);
     }
 
     public Boolean canBlackCastle() {
-        return canColorCastleQueensside[BLACK] || canColorCastleKingsside[BLACK];
+        return canCastle(COLOR_CASTLE_QUEENSSIDE[BLACK] | COLOR_CASTLE_KINGSSIDE[BLACK]);
     }
 
     public String getCastlingState() {
         StringBuilder sb = new StringBuilder();
         sb.append("castling: ")
-                .append("wQ=").append(canColorCastleQueensside[WHITE])
-                .append(" wK=").append(canColorCastleKingsside[WHITE])
-                .append("\tbQ=").append(canColorCastleQueensside[BLACK])
-                .append(" bK=").append(canColorCastleKingsside[BLACK]);
+                .append("wQ=").append(canCastle(COLOR_CASTLE_QUEENSSIDE[WHITE]))
+                .append(" wK=").append(canCastle(COLOR_CASTLE_KINGSSIDE[WHITE]))
+                .append("\tbQ=").append(canCastle(COLOR_CASTLE_QUEENSSIDE[BLACK]))
+                .append(" bK=").append(canCastle(COLOR_CASTLE_KINGSSIDE[BLACK]));
         return sb.toString();
     }
 
+    /**
+     * Classifies the position for the color to move with a single move
+     * generation. The result is cached until the position changes, so asking
+     * repeatedly (or through isGameover, isDraw and isMat) is cheap.
+     *
+     * @return the state of the game, checkmate taking precedence over the
+     * fifty move rule
+     */
+    public GameState gameState() {
+        if (gameState == null) {
+            if (generateMoves(colorToMove, scratchMoves, 0, true) == 0) {
+                gameState = isCheck(colorToMove) ? GameState.CHECKMATE : GameState.STALEMATE;
+            } else if (moveCount >= 100) {
+                gameState = GameState.FIFTY_MOVE;
+            } else if (isThreefoldRepetition()) {
+                gameState = GameState.REPETITION;
+            } else {
+                gameState = GameState.ONGOING;
+            }
+        }
+        return gameState;
+    }
+
+    /**
+     * @return true if the position occurred twice before with the same color
+     * to move, found from the keys of the earlier positions without
+     * generating moves
+     */
+    public boolean isThreefoldRepetition() {
+        // Only positions since the last capture or pawn move can repeat, and only every second one has the same color to move
+        int oldest = Math.max(0, keyHistorySize - moveCount);
+        int found = 0;
+        for (int i = keyHistorySize - 2; i >= oldest; i -= 2) {
+            if (keyHistory[i] == hashKey && ++found == 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isGameover() {
-        return isDraw(colorToMove) || isMat(colorToMove);
+        return gameState() != GameState.ONGOING;
     }
 
     public boolean isCheck(int color) {
-        return getValidMoves(color ^ BLACK, false).stream()
-                .anyMatch((validMove) -> (validMove.isHit() && figures[validMove.destCol][validMove.destRow] == (KING | color)));
+        long king = pieces[color][KING_INDEX];
+        return king != 0 && isSquareAttacked(Long.numberOfTrailingZeros(king), color ^ BLACK);
     }
 
     public boolean isDraw(int color) {
-        return moveCount >= 100 || (!isCheck(color) && getValidMoves(color).isEmpty());
+        if (color == colorToMove) {
+            return gameState().isDraw();
+        }
+        return moveCount >= 100 || (!isCheck(color) && !hasValidMove(color));
     }
 
     public boolean isMat(int color) {
-        if (!isCheck(color)) {
-            return false;
-        }
-        for (Move move : getValidMoves(color)) {
-            Board clone = cloneIncompletely();
-            clone.executeMove(move);
-            if (!clone.isCheck(color)) {
-                return false;
-            }
+        if (color == colorToMove) {
+            return gameState() == GameState.CHECKMATE;
         }
-        return true;
+        return isCheck(color) && !hasValidMove(color);
+    }
+
+    private boolean hasValidMove(int color) {
+        return generateMoves(color, scratchMoves, 0, true) > 0;
     }
 
     @Override
@@ -435,7 +1087,7 @@ public class Board {
             sb.append(i + 1).append(" #");
             for (int j = 0; j < 8; j++) {
                 sb.append(' ');
-                byte fig = figures[j][i];
+                byte fig = squares[square(j, i)];
                 if (fig == EMPTY_FIELD) {
                     sb.append(EMPTY);
                 } else {
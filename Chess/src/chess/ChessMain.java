@@ -1,52 +1,67 @@
 package chess;
 
 import agents.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.Random;
 
+/**
+ * Plays a game between a human and MyPlayer on the console.
+ *
+ * Usage: ChessMain [-pgn file], with -pgn the finished game is appended to
+ * the file, e.g. games.pgn, which git ignores.
+ */
 public class ChessMain {
 
     private static final Random RAND = new Random(new Date().getTime());
 
     public static void main(String[] args) {
+        String pgnFile = null;
+        if (args.length == 2 && args[0].equals("-pgn")) {
+            pgnFile = args[1];
+        } else if (args.length > 0) {
+            System.out.println("Usage: ChessMain [-pgn file]");
+            System.exit(2);
+            return;
+        }
         Board board = new Board();
+        String startFen = board.toFen();
 
         Player whitePlayer = new HumanPlayer();
-        Player blackPlayer = new MyPlayer();
+        MyPlayer blackPlayer = new MyPlayer();
+        // Keeps thinking while the human chooses a move
+        blackPlayer.setPonder(true);
         //Player whitePlayer = new MyPlayer();
 
-        boolean whiteMat = false;
-        boolean blackMat = false;
-        boolean draw = false;
-        int round = 1;
-        int MAX_ROUNDS = 200;
         int MAX_TIME = 1200;
         int color = 0;
         System.out.println(board.toString());
-        while (!board.isGameover()) {// && round < MAX_ROUNDS) {
+        while (board.gameState() == GameState.ONGOING) {
             Move move = (color == 0 ? whitePlayer : blackPlayer).chooseMove(board, color, MAX_TIME, RAND);
             System.out.println("Chosen move:\t" + move);
             board.executeMove(move);
             color = (color + 1) % 2;
             System.out.println(board.toString());
-            round++;
-            draw = board.isDraw(color);
-            if (color == 0) {
-                whiteMat = board.isMat(color);
-            } else {
-                blackMat = board.isMat(color);
-            }
         }
-        if (whiteMat) {
-            System.out.println("Result: BLACK wins");
+        if (board.gameState() == GameState.CHECKMATE) {
+            System.out.println(color == 0 ? "Result: BLACK wins" : "Result: WHITE wins");
+        } else {
+            System.out.println("Result: REMIS (" + board.gameState() + ")");
         }
-        if (blackMat) {
-            System.out.println("Result: WHITE wins");
+        System.out.println(board);
+        if (pgnFile == null) {
+            return;
         }
-        if (draw || round == MAX_ROUNDS) {
-            System.out.println("Result: REMIS");
+        try (PgnWriter pgn = new PgnWriter(Files.newBufferedWriter(Paths.get(pgnFile), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            pgn.write(PgnGame.of(startFen, board, whitePlayer.getClass().getSimpleName(), blackPlayer.getClass().getSimpleName()));
+        } catch (IOException ex) {
+            System.out.println("Can not write " + pgnFile + ": " + ex.getMessage());
         }
-        System.out.println(board);
     }
 
 }
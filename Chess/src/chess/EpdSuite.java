@@ -0,0 +1,256 @@
+package chess;
+
+import agents.MyPlayer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a test suite of positions in Extended Position Description (EPD)
+ * format, e.g. "Win at Chess". Every position is searched for a fixed time
+ * or number of nodes, and counts as solved if the move found is one of its
+ * best moves ("bm") and none of its moves to avoid ("am"). Several positions
+ * are searched at once, each by a player with a single thread which forgets
+ * the earlier positions before every search.
+ *
+ * Usage: EpdSuite [-time ms | -nodes N] [-concurrency N] [-hash MB] file
+ */
+public class EpdSuite {
+
+    private static final int MOVE_TIME_FOR_NODE_LIMIT = 1_000_000;
+
+    public static void main(String[] args) {
+        int time = 1000;
+        long nodes = 0;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        int hash = 16;
+        String file = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-time":
+                        time = Integer.parseInt(args[++i]);
+                        break;
+                    case "-nodes":
+                        nodes = Long.parseLong(args[++i]);
+                        break;
+                    case "-concurrency":
+                        concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "-hash":
+                        hash = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || file != null) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        file = args[i];
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("file expected");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.out.println("Usage: EpdSuite [-time ms | -nodes N] [-concurrency N] [-hash MB] file");
+            System.exit(2);
+            return;
+        }
+        List<Position> positions = new ArrayList<>();
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    positions.add(new Position(line, i + 1));
+                } catch (IllegalArgumentException ex) {
+                    // A broken record must not end a suite of thousands
+                    System.out.println("Line " + (i + 1) + " skipped: " + ex.getMessage());
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Can not read " + file + ": " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        int moveTime = nodes > 0 ? MOVE_TIME_FOR_NODE_LIMIT : time;
+        System.out.println(positions.size() + " positions, " + (nodes > 0 ? nodes + " nodes" : time + " ms")
+                + " per position, " + concurrency + " at once");
+
+        int searchHash = hash;
+        long searchNodes = nodes;
+        // One player per thread of the pool, reused for all positions the thread searches
+        ThreadLocal<MyPlayer> players = ThreadLocal.withInitial(() -> {
+            MyPlayer player = new MyPlayer(searchHash, 1);
+            player.setNodeLimit(searchNodes);
+            return player;
+        });
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        List<Future<Result>> results = new ArrayList<>();
+        for (int i = 0; i < positions.size(); i++) {
+            Position position = positions.get(i);
+            Random random = new Random(i);
+            results.add(pool.submit(() -> {
+                MyPlayer player = players.get();
+                player.clear();
+                Board board = new Board(position.fen);
+                Move move = player.chooseMove(board, board.getColorToMove(), moveTime, random);
+                return new Result(move, player.getLastNodes());
+            }));
+        }
+        int solved = 0;
+        long totalNodes = 0;
+        try {
+            // Reported in the order of the file, positions searched early wait for the slower ones before them
+            for (int i = 0; i < positions.size(); i++) {
+                Position position = positions.get(i);
+                Result result = results.get(i).get();
+                totalNodes += result.nodes;
+                if (position.isSolvedBy(result.move)) {
+                    solved++;
+                } else {
+                    Board board = new Board(position.fen);
+                    System.out.println(position.id + ": " + (result.move == null ? "no move" : San.toSan(board, result.move))
+                            + ", expected " + position.expectation);
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            System.out.println("Suite failed: " + ex);
+            pool.shutdownNow();
+            System.exit(1);
+            return;
+        }
+        pool.shutdown();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("Solved %d of %d (%.1f%%) in %.1f s, %d nodes, %d nps%n", solved, positions.size(),
+                100.0 * solved / Math.max(1, positions.size()), nanos / 1e9, totalNodes,
+                totalNodes * 1_000_000_000L / Math.max(1, nanos));
+        System.exit(0);
+    }
+
+    private static boolean isSameMove(Move a, Move b) {
+        return a.sourceCol == b.sourceCol && a.sourceRow == b.sourceRow && a.destCol == b.destCol
+                && a.destRow == b.destRow && a.newType == b.newType;
+    }
+
+    /**
+     * One record of the suite: the first four FEN fields, followed by
+     * operations ending with ";", e.g. bm Qg6+; id "WAC.012";
+     */
+    private static class Position {
+
+        private final String fen;
+        private final String id;
+        private final List<Move> bestMoves = new ArrayList<>();
+        private final List<Move> avoidMoves = new ArrayList<>();
+        // The operations bm and am as written, for the report
+        private final String expectation;
+
+        Position(String line, int lineNumber) {
+            String[] fields = line.split("\\s+", 5);
+            if (fields.length < 5) {
+                throw new IllegalArgumentException("no operations");
+            }
+            fen = fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3];
+            Board board = new Board(fen);
+            List<Move> legalMoves = board.getValidMoves();
+            String name = "line " + lineNumber;
+            StringBuilder expected = new StringBuilder();
+            for (String operation : splitOperations(fields[4])) {
+                String[] parts = operation.split("\\s+", 2);
+                if (parts.length < 2) {
+                    continue;
+                }
+                switch (parts[0]) {
+                    case "id":
+                        name = parts[1].replace("\"", "");
+                        break;
+                    case "bm":
+                    case "am":
+                        List<Move> moves = parts[0].equals("bm") ? bestMoves : avoidMoves;
+                        for (String san : parts[1].trim().split("\\s+")) {
+                            Move move = San.fromSan(san, legalMoves);
+                            if (move == null) {
+                                throw new IllegalArgumentException("illegal or ambiguous move " + san);
+                            }
+                            moves.add(move);
+                        }
+                        expected.append(expected.length() == 0 ? "" : ", ").append(operation);
+                        break;
+                    default:
+                        // Other operations, e.g. comments or counters, do not matter for solving
+                        break;
+                }
+            }
+            if (bestMoves.isEmpty() && avoidMoves.isEmpty()) {
+                throw new IllegalArgumentException("neither bm nor am");
+            }
+            id = name;
+            expectation = expected.toString();
+        }
+
+        boolean isSolvedBy(Move move) {
+            if (move == null) {
+                return false;
+            }
+            for (Move avoid : avoidMoves) {
+                if (isSameMove(move, avoid)) {
+                    return false;
+                }
+            }
+            if (bestMoves.isEmpty()) {
+                return true;
+            }
+            for (Move best : bestMoves) {
+                if (isSameMove(move, best)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Semicolons inside quoted strings do not end an operation
+        private static List<String> splitOperations(String text) {
+            List<String> operations = new ArrayList<>();
+            StringBuilder operation = new StringBuilder();
+            boolean quoted = false;
+            for (char c : text.toCharArray()) {
+                if (c == '"') {
+                    quoted = !quoted;
+                }
+                if (c == ';' && !quoted) {
+                    operations.add(operation.toString().trim());
+                    operation.setLength(0);
+                } else {
+                    operation.append(c);
+                }
+            }
+            if (operation.toString().trim().length() > 0) {
+                operations.add(operation.toString().trim());
+            }
+            return operations;
+        }
+    }
+
+    private static class Result {
+
+        private final Move move;
+        private final long nodes;
+
+        Result(Move move, long nodes) {
+            this.move = move;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package chess;
+
+/**
+ * Checks the FEN input and output of Board: positions must be written back
+ * by toFen exactly as they were read, and malformed FEN must be rejected with
+ * an IllegalArgumentException. Any other exception is a bug and ends the
+ * check.
+ *
+ * Usage: FenCheck
+ */
+public class FenCheck {
+
+    // Written back unchanged by toFen
+    private static final String[] ROUND_TRIP_FENS = {
+        Perft.START_FEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+        "4k3/8/8/8/3pP3/8/8/4K3 b - e3 0 57",
+        "r3k2r/8/8/8/8/8/8/R3K2R b Kq - 12 40"
+    };
+    // Each must be rejected with an IllegalArgumentException
+    private static final String[] MALFORMED_FENS = {
+        "4k3/8/8/8/8/8/8/4K3 w - z9 0 1",
+        "4k3/8/8/8/8/8/8/4K3 w - e3 0 1",
+        "4k3/8/8/8/8/8/8/4K3 w - e 0 1",
+        "4k3/8/8/8/8/8/8/4K3 x - - 0 1",
+        "4k3/8/8/8/8/8/8/4K3 w KX - 0 1",
+        "4k3/8/8/8/8/8/8/4K3 w - - -1 1",
+        "4k3/8/8/8/8/8/8/4K3 w - - a 1",
+        "4k3/8/8/8/8/8/4K3 w - - 0 1",
+        "4k4/8/8/8/8/8/8/4K3 w - - 0 1",
+        "4k3/8/8/8/8/8/8/4K2 w - - 0 1",
+        "4kx2/8/8/8/8/8/8/4K3 w - - 0 1",
+        "4k3/8/8/8/8/8/8/4K3",
+        "8/8/8/8/8/8/8/4K3 w - - 0 1",
+        "4k3/8/8/8/8/8/8/8 b - - 0 1",
+        "4k3/8/8/8/8/8/8/2K1K3 w - - 0 1",
+        "4k3/8/8/8/8/8/8/4R1K1 w - - 0 1"
+    };
+
+    public static void main(String[] args) {
+        boolean ok = true;
+        for (String fen : ROUND_TRIP_FENS) {
+            String written = new Board(fen).toFen();
+            boolean match = written.equals(fen);
+            ok &= match;
+            System.out.println((match ? "OK  " : "FAIL") + "\tround trip" + (match ? "" : " (written as " + written + ")")
+                    + "\t" + fen);
+        }
+        for (String fen : MALFORMED_FENS) {
+            boolean rejected;
+            try {
+                new Board(fen);
+                rejected = false;
+            } catch (IllegalArgumentException ex) {
+                rejected = true;
+            }
+            ok &= rejected;
+            System.out.println((rejected ? "OK  " : "FAIL") + "\trejected\t" + fen);
+        }
+        System.out.println(ok ? "All FENs as expected" : "Mismatches found");
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,21 @@
+package chess;
+
+/**
+ * State of a game from the point of view of the color to move, see
+ * {@link Board#gameState()}
+ */
+public enum GameState {
+    ONGOING,
+    // The color to move is mated
+    CHECKMATE,
+    // The color to move has no valid move but is not in check
+    STALEMATE,
+    // 50 moves by each side without a capture or pawn move
+    FIFTY_MOVE,
+    // The position occurred for the third time
+    REPETITION;
+
+    public boolean isDraw() {
+        return this == STALEMATE || this == FIFTY_MOVE || this == REPETITION;
+    }
+}
@@ -17,6 +17,24 @@ public class Globals {
     public static final byte QUEEN = (byte) ('Q' << 1);
     public static final byte KING = (byte) ('K' << 1);
 
+    // Compact piece indices used for bitboards, INDEX_TYPE maps them back to the types above
+    public static final int NO_PIECE_INDEX = 0;
+    public static final int PAWN_INDEX = 1;
+    public static final int KNIGHT_INDEX = 2;
+    public static final int BISHOP_INDEX = 3;
+    public static final int ROOK_INDEX = 4;
+    public static final int QUEEN_INDEX = 5;
+    public static final int KING_INDEX = 6;
+    public static final int PIECE_INDEX_COUNT = 7;
+    public static final byte[] INDEX_TYPE = {EMPTY_FIELD, PAWN, KNIGHT, BISHOP, ROOK, QUEEN, KING};
+    public static final int[] TYPE_INDEX = new int[256];
+
+    static {
+        for (int i = 0; i < PIECE_INDEX_COUNT; i++) {
+            TYPE_INDEX[INDEX_TYPE[i] & NO_COLOR_MASK] = i;
+        }
+    }
+
     public static final double[] PIECE_VALUE = new double[255];
 
     static {
@@ -40,6 +58,10 @@ public class Globals {
     public static final byte[][] BISHOP_MOVE_DIRECTIONS = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
     public static final byte[][] KNIGHT_MOVES = {{-2, -1}, {-2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}, {2, -1}, {2, 1}};
 
+    public static final int NO_SQUARE = -1;
+    // Upper bound for the number of moves in any position, used to size move buffers
+    public static final int MAX_MOVES = 256;
+
     public static final int MIN_IDX = 0;
     public static final int MAX_IDX = 7;
 
@@ -49,6 +71,10 @@ public class Globals {
 
     public static final int KING_POSITION = 4;
 
+    // Castling rights bits, indexed by color
+    public static final int[] COLOR_CASTLE_QUEENSSIDE = {1, 4};
+    public static final int[] COLOR_CASTLE_KINGSSIDE = {2, 8};
+
     public static final int KING_QUEENSSIDE_CASTLING = 2;
     public static final int ROOK_QUEENSSIDE_CASTLING = 3;
     public static final int KING_KINGSSIDE_CASTLING = 6;
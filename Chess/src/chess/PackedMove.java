@@ -0,0 +1,95 @@
+package chess;
+
+import static chess.Bitboards.*;
+import static chess.Globals.*;
+
+/**
+ * Helpers for moves packed into a single int, which is what the search works
+ * with. {@link Move} objects are only created from these where a move leaves
+ * the engine.
+ *
+ * Layout, from the lowest bit: source square (6 bits), destination square (6),
+ * piece index (3), captured piece index (3), promotion piece index (3), color
+ * (1) and the en passant, castling and double pawn push flags (1 each).
+ */
+public class PackedMove {
+
+    public static final int NO_MOVE = 0;
+
+    private static final int DEST_SHIFT = 6;
+    private static final int PIECE_SHIFT = 12;
+    private static final int CAPTURED_SHIFT = 15;
+    private static final int PROMOTION_SHIFT = 18;
+    private static final int COLOR_SHIFT = 21;
+
+    public static final int FLAG_EN_PASSANT = 1 << 22;
+    public static final int FLAG_CASTLING = 1 << 23;
+    public static final int FLAG_DOUBLE_PUSH = 1 << 24;
+
+    public static int create(int color, int source, int dest, int pieceIndex, int capturedIndex, int promotionIndex, int flags) {
+        return source | (dest << DEST_SHIFT) | (pieceIndex << PIECE_SHIFT) | (capturedIndex << CAPTURED_SHIFT)
+                | (promotionIndex << PROMOTION_SHIFT) | (color << COLOR_SHIFT) | flags;
+    }
+
+    public static int getSource(int move) {
+        return move & 63;
+    }
+
+    public static int getDest(int move) {
+        return (move >>> DEST_SHIFT) & 63;
+    }
+
+    public static int getPiece(int move) {
+        return (move >>> PIECE_SHIFT) & 7;
+    }
+
+    public static int getCaptured(int move) {
+        return (move >>> CAPTURED_SHIFT) & 7;
+    }
+
+    public static int getPromotion(int move) {
+        return (move >>> PROMOTION_SHIFT) & 7;
+    }
+
+    public static int getColor(int move) {
+        return (move >>> COLOR_SHIFT) & 1;
+    }
+
+    public static boolean isCapture(int move) {
+        return getCaptured(move) != NO_PIECE_INDEX;
+    }
+
+    public static boolean isEnPassant(int move) {
+        return (move & FLAG_EN_PASSANT) != 0;
+    }
+
+    public static boolean isCastling(int move) {
+        return (move & FLAG_CASTLING) != 0;
+    }
+
+    public static boolean isDoublePush(int move) {
+        return (move & FLAG_DOUBLE_PUSH) != 0;
+    }
+
+    /**
+     * @param move a packed move
+     * @return the figure (type with color) standing on the destination after
+     * the move
+     */
+    public static byte getNewType(int move) {
+        int promotion = getPromotion(move);
+        return (byte) (INDEX_TYPE[promotion != NO_PIECE_INDEX ? promotion : getPiece(move)] | getColor(move));
+    }
+
+    public static Move toMove(int move) {
+        int color = getColor(move);
+        int source = getSource(move);
+        int dest = getDest(move);
+        return new Move(color, (byte) (INDEX_TYPE[getPiece(move)] | color), column(source), row(source),
+                column(dest), row(dest), isCapture(move), getNewType(move));
+    }
+
+    public static String toString(int move) {
+        return toMove(move).toString();
+    }
+}
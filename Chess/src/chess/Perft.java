@@ -0,0 +1,258 @@
+package chess;
+
+import static chess.Globals.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the leaf nodes of the move generator to a fixed depth, which
+ * validates Board against known counts and measures its speed.
+ *
+ * Usage: Perft [-fen FEN] [-divide] [-threads N] [-hash MB] depth, or
+ * Perft -verify [maxDepth] to check the built-in reference positions, up to
+ * depth 4 also through getValidMoves and executeMove.
+ */
+public class Perft {
+
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // Well known positions with their published node counts for depth 1, 2, ...
+    private static final String[] REFERENCE_FENS = {
+        START_FEN,
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+    private static final long[][] REFERENCE_COUNTS = {
+        {20, 400, 8_902, 197_281, 4_865_609, 119_060_324},
+        {48, 2_039, 97_862, 4_085_603, 193_690_690},
+        {14, 191, 2_812, 43_238, 674_624, 11_030_083},
+        {6, 264, 9_467, 422_333, 15_833_292},
+        {44, 1_486, 62_379, 2_103_487, 89_941_194},
+        {46, 2_079, 89_890, 3_894_594, 164_075_551}
+    };
+
+    // The public move path is counted up to this depth, it allocates a Move and a Board per node
+    private static final int VALID_MOVES_MAX_DEPTH = 4;
+
+    // Hash table of subtree counts, an entry is valid if key ^ count matches the position and depth
+    private final long[] hashChecks;
+    private final long[] hashCounts;
+    private final int hashMask;
+
+    /**
+     * @param hashMegabytes size of the table caching subtree counts, 0 to
+     * disable it
+     */
+    public Perft(int hashMegabytes) {
+        int entries = 0;
+        if (hashMegabytes > 0) {
+            // 16 bytes per entry, rounded down to a power of two
+            entries = Integer.highestOneBit((int) Math.min(1 << 30, hashMegabytes * (1L << 20) / 16));
+        }
+        hashChecks = new long[entries];
+        hashCounts = new long[entries];
+        hashMask = entries - 1;
+    }
+
+    /**
+     * @param board the position, which is left unchanged
+     * @param depth number of plies to count
+     * @return the number of leaf nodes
+     */
+    public long perft(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        return count(board, depth, new int[depth * MAX_MOVES], 0);
+    }
+
+    /**
+     * Counts the leaf nodes below every root move, optionally spreading the
+     * root moves over several threads. Each thread works on its own copy of
+     * the board, the hash table is shared.
+     *
+     * @param board the position, which is left unchanged
+     * @param depth number of plies to count, at least 1
+     * @param threads number of threads to use
+     * @param rootMoves receives the packed root moves, needs room for
+     * MAX_MOVES moves
+     * @return the leaf counts per root move, in the order of rootMoves
+     */
+    public long[] divide(Board board, int depth, int threads, int[] rootMoves) throws InterruptedException {
+        int count = board.generateMoves(rootMoves, 0);
+        long[] counts = new long[count];
+        if (threads <= 1) {
+            int[] buf = new int[depth * MAX_MOVES];
+            for (int i = 0; i < count; i++) {
+                board.makeMove(rootMoves[i]);
+                counts[i] = depth == 1 ? 1 : count(board, depth - 1, buf, 0);
+                board.unmakeMove();
+            }
+            return counts;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Board clone = board.cloneIncompletely();
+                int move = rootMoves[i];
+                futures.add(executor.submit(() -> {
+                    clone.makeMove(move);
+                    return depth == 1 ? 1 : count(clone, depth - 1, new int[depth * MAX_MOVES], 0);
+                }));
+            }
+            for (int i = 0; i < count; i++) {
+                counts[i] = futures.get(i).get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return counts;
+    }
+
+    private long count(Board board, int depth, int[] buf, int offset) {
+        int end = board.generateMoves(buf, offset);
+        if (depth == 1) {
+            // Bulk counting, the moves of the last ply are not executed
+            return end - offset;
+        }
+        long key = board.hashKey() ^ (depth * 0x9E37_79B9_7F4A_7C15L);
+        int idx = (int) key & hashMask;
+        if (hashMask >= 0) {
+            long stored = hashCounts[idx];
+            if ((hashChecks[idx] ^ stored) == key) {
+                return stored;
+            }
+        }
+        long nodes = 0;
+        for (int i = offset; i < end; i++) {
+            board.makeMove(buf[i]);
+            nodes += count(board, depth - 1, buf, end);
+            board.unmakeMove();
+        }
+        if (hashMask >= 0) {
+            hashChecks[idx] = key ^ nodes;
+            hashCounts[idx] = nodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts like perft, but with getValidMoves and executeMove on copies of
+     * the board, the way players use it. This also checks how executeMove
+     * packs a Move, e.g. telling en passant and castling from it, at the
+     * price of a much slower count.
+     *
+     * @param board the position, which is left unchanged
+     * @param depth number of plies to count
+     * @return the number of leaf nodes
+     */
+    public static long perftValidMoves(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        List<Move> moves = board.getValidMoves();
+        if (depth == 1) {
+            return moves.size();
+        }
+        long nodes = 0;
+        for (Move move : moves) {
+            Board child = board.cloneIncompletely();
+            child.executeMove(move);
+            nodes += perftValidMoves(child, depth - 1);
+        }
+        return nodes;
+    }
+
+    private static boolean verify(int maxDepth) {
+        boolean ok = true;
+        Perft perft = new Perft(0);
+        for (int i = 0; i < REFERENCE_FENS.length; i++) {
+            Board board = new Board(REFERENCE_FENS[i]);
+            for (int depth = 1; depth <= Math.min(maxDepth, REFERENCE_COUNTS[i].length); depth++) {
+                ok &= check(perft.perft(board, depth), i, depth, "");
+                if (depth <= VALID_MOVES_MAX_DEPTH) {
+                    ok &= check(perftValidMoves(board, depth), i, depth, " getValidMoves");
+                }
+            }
+        }
+        return ok;
+    }
+
+    private static boolean check(long nodes, int position, int depth, String path) {
+        long expected = REFERENCE_COUNTS[position][depth - 1];
+        boolean match = nodes == expected;
+        System.out.println((match ? "OK  " : "FAIL") + "\tdepth " + depth + path + "\t" + nodes
+                + (match ? "" : " (expected " + expected + ")") + "\t" + REFERENCE_FENS[position]);
+        return match;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String fen = START_FEN;
+        boolean divide = false;
+        int threads = 1;
+        int hash = 0;
+        int depth = -1;
+        Board board = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-fen":
+                        fen = args[++i];
+                        break;
+                    case "-divide":
+                        divide = true;
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-hash":
+                        hash = Integer.parseInt(args[++i]);
+                        break;
+                    case "-verify":
+                        boolean ok = verify(i + 1 < args.length ? Integer.parseInt(args[i + 1]) : 5);
+                        System.out.println(ok ? "All counts match" : "Mismatches found");
+                        System.exit(ok ? 0 : 1);
+                        return;
+                    default:
+                        depth = Integer.parseInt(args[i]);
+                }
+            }
+            board = new Board(fen);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            // Also a malformed FEN
+            depth = -1;
+        }
+        if (depth < 1) {
+            System.out.println("Usage: Perft [-fen FEN] [-divide] [-threads N] [-hash MB] depth");
+            System.out.println("       Perft -verify [maxDepth]");
+            System.exit(2);
+            return;
+        }
+        Perft perft = new Perft(hash);
+        int[] rootMoves = new int[MAX_MOVES];
+        long start = System.nanoTime();
+        long[] counts = perft.divide(board, depth, threads, rootMoves);
+        long elapsed = System.nanoTime() - start;
+        long nodes = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (divide) {
+                System.out.println(PackedMove.toString(rootMoves[i]).trim() + ": " + counts[i]);
+            }
+            nodes += counts[i];
+        }
+        long millis = elapsed / 1_000_000;
+        System.out.println("Nodes:\t" + nodes);
+        System.out.println("Time:\t" + millis + " ms");
+        System.out.println("NPS:\t" + (elapsed == 0 ? 0 : nodes * 1_000_000_000L / elapsed));
+    }
+}
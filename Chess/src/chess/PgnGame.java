@@ -0,0 +1,117 @@
+package chess;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A game as stored in Portable Game Notation (PGN): its tags, e.g. "White"
+ * or "Result", and its moves from the start position, which is the normal
+ * one unless the tag "FEN" gives another.
+ */
+public class PgnGame {
+
+    public static final String WHITE_WINS = "1-0";
+    public static final String BLACK_WINS = "0-1";
+    public static final String DRAW = "1/2-1/2";
+    public static final String UNFINISHED = "*";
+
+    private final Map<String, String> tags;
+    private final List<Move> moves;
+
+    /**
+     * @param tags the tags in the order they are written, the moves are
+     * played from the position of the tag "FEN" if there is one
+     * @param moves the moves of the game
+     */
+    public PgnGame(Map<String, String> tags, List<Move> moves) {
+        this.tags = new LinkedHashMap<>(tags);
+        this.moves = new ArrayList<>(moves);
+    }
+
+    /**
+     * Records a game played on the given board today
+     *
+     * @param startFen the position the game started from
+     * @param board the board the game was played on, its history holds the
+     * moves
+     * @param white name of the white player
+     * @param black name of the black player
+     * @return the game, with the result of the board
+     */
+    public static PgnGame of(String startFen, Board board, String white, String black) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("Date", LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd")));
+        tags.put("White", white);
+        tags.put("Black", black);
+        tags.put("Result", resultOf(board));
+        if (!startFen.equals(Perft.START_FEN)) {
+            tags.put("SetUp", "1");
+            tags.put("FEN", startFen);
+        }
+        return new PgnGame(tags, board.getHistory());
+    }
+
+    /**
+     * @return the result of the position in PGN, UNFINISHED while the game
+     * goes on
+     */
+    public static String resultOf(Board board) {
+        switch (board.gameState()) {
+            case ONGOING:
+                return UNFINISHED;
+            case CHECKMATE:
+                // The color to move is mated
+                return board.getColorToMove() == Globals.WHITE ? BLACK_WINS : WHITE_WINS;
+            default:
+                return DRAW;
+        }
+    }
+
+    public Map<String, String> getTags() {
+        return Collections.unmodifiableMap(tags);
+    }
+
+    /**
+     * @param name the name of a tag
+     * @return its value, null if the game does not have the tag
+     */
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    /**
+     * @return one of WHITE_WINS, BLACK_WINS, DRAW and UNFINISHED
+     */
+    public String getResult() {
+        String result = tags.get("Result");
+        return result == null ? UNFINISHED : result;
+    }
+
+    public List<Move> getMoves() {
+        return Collections.unmodifiableList(moves);
+    }
+
+    /**
+     * @return a new board with the position before the first move
+     */
+    public Board getStartBoard() {
+        String fen = tags.get("FEN");
+        return fen == null ? new Board() : new Board(fen);
+    }
+
+    /**
+     * @return a new board with all moves of the game executed
+     */
+    public Board replay() {
+        Board board = getStartBoard();
+        for (Move move : moves) {
+            board.executeMove(move);
+        }
+        return board;
+    }
+}
@@ -0,0 +1,380 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads games in Portable Game Notation (PGN) one by one from a stream of
+ * any length. The calling thread only splits the text into games, which
+ * threads of the reader then parse and replay in parallel. Only a few games
+ * per thread are ahead of the caller at any time, so the memory needed does
+ * not grow with the file, and the games come in the order of the file.
+ *
+ * Comments, variations and numeric annotations are skipped. A game with an
+ * illegal or ambiguous move, a broken tag or an invalid FEN is skipped as a
+ * whole and counted, see {@link #getSkippedGames()}, as is a game with more
+ * text than any real one, e.g. after a comment which is never closed.
+ *
+ * Usage: PgnReader [-threads N] file, replays all games of the file and
+ * prints how many there were and how fast they were read.
+ */
+public class PgnReader implements Closeable {
+
+    // Games read ahead per thread
+    private static final int GAMES_AHEAD = 8;
+    // Characters of the text of a game, longer ones are skipped, which bounds the memory needed
+    private static final int MAX_GAME_LENGTH = 1 << 20;
+
+    private final BufferedReader in;
+    private final ExecutorService pool;
+    private final int maxPending;
+    // Games being parsed, oldest first
+    private final ArrayDeque<Future<PgnGame>> pending = new ArrayDeque<>();
+    // The first line of the next game, read while looking for the end of the last one
+    private String nextLine;
+    private int lineNumber;
+    // Line number of the first line of the game read last
+    private int gameLine;
+    private long skippedGames;
+
+    /**
+     * @param in the text to read, buffered by the reader
+     * @param threads number of threads parsing games
+     */
+    public PgnReader(Reader in, int threads) {
+        this.in = new BufferedReader(in, 1 << 16);
+        int count = Math.max(1, threads);
+        pool = Executors.newFixedThreadPool(count, r -> {
+            // Daemon threads, so a reader which is not closed does not keep the program alive
+            Thread thread = new Thread(r, "PgnReader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxPending = count * GAMES_AHEAD;
+    }
+
+    /**
+     * @return the next game of the stream, null at its end
+     * @throws IOException if the stream can not be read
+     */
+    public PgnGame next() throws IOException {
+        while (true) {
+            while (pending.size() < maxPending) {
+                String text = readGameText();
+                if (text == null) {
+                    break;
+                }
+                int firstLine = gameLine;
+                pending.add(pool.submit(() -> parse(text, firstLine)));
+            }
+            Future<PgnGame> game = pending.poll();
+            if (game == null) {
+                return null;
+            }
+            try {
+                return game.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException ex) {
+                // One broken game must not end the reading of an archive, bugs of the reader still do
+                Throwable cause = ex.getCause();
+                if (cause instanceof IllegalArgumentException) {
+                    skippedGames++;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new IOException(cause);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of games skipped so far because they could not be
+     * parsed or were too long
+     */
+    public long getSkippedGames() {
+        return skippedGames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        in.close();
+    }
+
+    /**
+     * Reads the lines of one game: its tags and its movetext, which ends
+     * where the tags of the next game start. A game longer than
+     * MAX_GAME_LENGTH is skipped and counted.
+     *
+     * @return the text of the game, null at the end of the stream
+     */
+    private String readGameText() throws IOException {
+        StringBuilder text = new StringBuilder(1024);
+        boolean movetext = false;
+        // Comments may span lines and contain lines starting like tags
+        boolean comment = false;
+        // Set once the game is too long, the rest of it is read but not kept
+        boolean tooLong = false;
+        while (true) {
+            String line = nextLine != null ? nextLine : in.readLine();
+            nextLine = null;
+            if (line == null) {
+                break;
+            }
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.startsWith("%") || trimmed.isEmpty() && text.length() == 0 && !tooLong) {
+                // Escaped lines are for other programs, blank lines between games do not belong to either
+                continue;
+            }
+            boolean tag = trimmed.startsWith("[") && !comment;
+            if (tag && movetext) {
+                nextLine = line;
+                lineNumber--;
+                if (!tooLong) {
+                    break;
+                }
+                skippedGames++;
+                text.setLength(0);
+                movetext = false;
+                tooLong = false;
+                continue;
+            }
+            if (!trimmed.isEmpty() && !tag) {
+                movetext = true;
+            }
+            // Tag values may contain braces, they do not open comments
+            for (int i = 0; i < trimmed.length() && !tag; i++) {
+                char c = trimmed.charAt(i);
+                if (c == '{') {
+                    comment = true;
+                } else if (c == '}') {
+                    comment = false;
+                } else if (c == ';' && !comment) {
+                    // The rest of the line is a comment
+                    break;
+                }
+            }
+            if (tooLong) {
+                continue;
+            }
+            if (text.length() == 0) {
+                gameLine = lineNumber;
+            }
+            text.append(line).append('\n');
+            if (text.length() > MAX_GAME_LENGTH) {
+                // Most likely a comment which is never closed, so the game is taken to end at the next tag
+                tooLong = true;
+                comment = false;
+            }
+        }
+        if (tooLong) {
+            skippedGames++;
+            return null;
+        }
+        return text.length() == 0 ? null : text.toString();
+    }
+
+    /**
+     * Parses the text of one game
+     *
+     * @param text the tags and the movetext of the game
+     * @return the game, its moves replayed from its start position
+     * @throws IllegalArgumentException if the game can not be parsed or has
+     * an illegal move
+     */
+    public static PgnGame parse(String text) {
+        return parse(text, 1);
+    }
+
+    private static PgnGame parse(String text, int firstLine) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        int index = 0;
+        int line = firstLine;
+        // Tags come first, one per line
+        while (index < text.length()) {
+            int end = text.indexOf('\n', index);
+            if (end < 0) {
+                end = text.length();
+            }
+            String tag = text.substring(index, end).trim();
+            if (!tag.startsWith("[")) {
+                if (!tag.isEmpty()) {
+                    break;
+                }
+            } else {
+                parseTag(tag, tags, line);
+            }
+            index = end + 1;
+            line++;
+        }
+        Board board;
+        try {
+            String fen = tags.get("FEN");
+            board = fen == null ? new Board() : new Board(fen);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Line " + firstLine + ": " + ex.getMessage(), ex);
+        }
+        List<Move> moves = new ArrayList<>();
+        int[] legalMoves = new int[Globals.MAX_MOVES];
+        String result = null;
+        int variationDepth = 0;
+        while (index < text.length() && result == null) {
+            char c = text.charAt(index);
+            if (c == '\n') {
+                line++;
+                index++;
+            } else if (Character.isWhitespace(c)) {
+                index++;
+            } else if (c == '{') {
+                // Comments do not nest
+                int end = text.indexOf('}', index);
+                end = end < 0 ? text.length() : end;
+                line += countLines(text, index, end);
+                index = end + 1;
+            } else if (c == ';') {
+                int end = text.indexOf('\n', index);
+                index = end < 0 ? text.length() : end;
+            } else if (c == '(') {
+                variationDepth++;
+                index++;
+            } else if (c == ')') {
+                variationDepth = Math.max(0, variationDepth - 1);
+                index++;
+            } else {
+                int end = index;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && "{}();".indexOf(text.charAt(end)) < 0) {
+                    end++;
+                }
+                String token = text.substring(index, end);
+                index = end;
+                if (variationDepth > 0 || token.startsWith("$")) {
+                    continue;
+                }
+                if (token.equals(PgnGame.WHITE_WINS) || token.equals(PgnGame.BLACK_WINS) || token.equals(PgnGame.DRAW)
+                        || token.equals(PgnGame.UNFINISHED)) {
+                    result = token;
+                    continue;
+                }
+                String san = stripMoveNumber(token);
+                if (san.isEmpty()) {
+                    continue;
+                }
+                int packed = San.toPackedMove(board, san, legalMoves);
+                if (packed == PackedMove.NO_MOVE) {
+                    throw new IllegalArgumentException("Line " + line + ": illegal or ambiguous move " + san);
+                }
+                Move move = PackedMove.toMove(packed);
+                board.executeMove(move);
+                moves.add(move);
+            }
+        }
+        if (result != null && !tags.containsKey("Result")) {
+            tags.put("Result", result);
+        }
+        return new PgnGame(tags, moves);
+    }
+
+    // [Name "value"], backslashes escape quotes and backslashes in the value
+    private static void parseTag(String tag, Map<String, String> tags, int line) {
+        int space = tag.indexOf(' ');
+        int open = tag.indexOf('"');
+        int close = tag.lastIndexOf('"');
+        if (space < 0 || open < 0 || close <= open || !tag.endsWith("]")) {
+            throw new IllegalArgumentException("Line " + line + ": invalid tag " + tag);
+        }
+        StringBuilder value = new StringBuilder(close - open);
+        for (int i = open + 1; i < close; i++) {
+            char c = tag.charAt(i);
+            if (c == '\\' && i + 1 < close) {
+                c = tag.charAt(++i);
+            }
+            value.append(c);
+        }
+        tags.put(tag.substring(1, space), value.toString());
+    }
+
+    // "12.", "12..." and "12.e4" all carry a move number, castling with zeros does not
+    private static String stripMoveNumber(String token) {
+        if (token.startsWith("0-0")) {
+            return token;
+        }
+        int start = 0;
+        while (start < token.length() && Character.isDigit(token.charAt(start))) {
+            start++;
+        }
+        if (start == 0) {
+            return token;
+        }
+        while (start < token.length() && token.charAt(start) == '.') {
+            start++;
+        }
+        return token.substring(start);
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String file = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (file == null && !args[i].startsWith("-")) {
+                    file = args[i];
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("file expected");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.out.println("Usage: PgnReader [-threads N] file");
+            System.exit(2);
+            return;
+        }
+        long start = System.nanoTime();
+        long games = 0;
+        long plies = 0;
+        try (PgnReader reader = new PgnReader(Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8), threads)) {
+            PgnGame game;
+            while ((game = reader.next()) != null) {
+                games++;
+                plies += game.getMoves().size();
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%d games, %d plies, %d skipped in %.1f s, %d games/s%n", games, plies,
+                    reader.getSkippedGames(), nanos / 1e9, games * 1_000_000_000L / Math.max(1, nanos));
+        }
+    }
+}
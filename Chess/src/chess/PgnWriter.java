@@ -0,0 +1,114 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes games in Portable Game Notation (PGN) one after the other, each is
+ * flushed once written so an archive is complete even if the program ends
+ * later on. May be shared by several threads, games are never interleaved.
+ */
+public class PgnWriter implements Closeable, Flushable {
+
+    // PGN lines should not be longer than this
+    private static final int LINE_LENGTH = 79;
+    // Written first, in this order, with "?" if the game does not have them
+    private static final String[] SEVEN_TAG_ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+
+    private final Writer out;
+
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param game the game to append, its moves must be legal
+     * @throws IOException if the game can not be written
+     */
+    public void write(PgnGame game) throws IOException {
+        StringBuilder pgn = new StringBuilder(1024);
+        Map<String, String> tags = game.getTags();
+        for (String name : SEVEN_TAG_ROSTER) {
+            String value = tags.get(name);
+            if (value == null) {
+                value = name.equals("Date") ? "????.??.??" : name.equals("Result") ? game.getResult() : "?";
+            }
+            appendTag(pgn, name, value);
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!isSevenTagRoster(tag.getKey())) {
+                appendTag(pgn, tag.getKey(), tag.getValue());
+            }
+        }
+        pgn.append('\n');
+        appendMovetext(pgn, game);
+        pgn.append("\n\n");
+        synchronized (this) {
+            out.write(pgn.toString());
+            out.flush();
+        }
+    }
+
+    private static void appendTag(StringBuilder pgn, String name, String value) {
+        pgn.append('[').append(name).append(" \"");
+        pgn.append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"]\n");
+    }
+
+    private static boolean isSevenTagRoster(String name) {
+        for (String roster : SEVEN_TAG_ROSTER) {
+            if (roster.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Move numbers and moves in SAN, wrapped at LINE_LENGTH, ending with the result
+    private static void appendMovetext(StringBuilder pgn, PgnGame game) {
+        Board board = game.getStartBoard();
+        int lineStart = pgn.length();
+        boolean first = true;
+        for (Move move : game.getMoves()) {
+            List<Move> legalMoves = board.getValidMoves();
+            StringBuilder token = new StringBuilder(16);
+            if (board.getColorToMove() == Globals.WHITE) {
+                token.append(board.getFullMoveNumber()).append(". ");
+            } else if (first) {
+                token.append(board.getFullMoveNumber()).append("... ");
+            }
+            token.append(San.toSan(board, move, legalMoves));
+            lineStart = appendToken(pgn, token, lineStart, first);
+            board.executeMove(move);
+            first = false;
+        }
+        appendToken(pgn, game.getResult(), lineStart, first);
+    }
+
+    // Returns the start of the current line
+    private static int appendToken(StringBuilder pgn, CharSequence token, int lineStart, boolean first) {
+        if (!first) {
+            if (pgn.length() - lineStart + 1 + token.length() > LINE_LENGTH) {
+                pgn.append('\n');
+                lineStart = pgn.length();
+            } else {
+                pgn.append(' ');
+            }
+        }
+        pgn.append(token);
+        return lineStart;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
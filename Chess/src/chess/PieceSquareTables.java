@@ -0,0 +1,101 @@
+package chess;
+
+import static chess.Globals.*;
+
+/**
+ * Values in centipawns for the static evaluation: the material value of every
+ * piece, taken from {@link Globals#PIECE_VALUE}, and a positional bonus for
+ * every piece on every square. {@link Board} sums both per color while pieces
+ * are put and removed, so the evaluation does not need to look at the squares.
+ *
+ * The positional tables are the well known ones of the simplified evaluation
+ * function, written from white's point of view with the eighth row first.
+ */
+public class PieceSquareTables {
+
+    // Indexed by piece index
+    public static final int[] MATERIAL_VALUES = new int[PIECE_INDEX_COUNT];
+    // Indexed by color, piece index and square
+    public static final int[][][] POSITION_VALUES = new int[2][PIECE_INDEX_COUNT][64];
+
+    private static final int[] PAWN_TABLE = {
+        0, 0, 0, 0, 0, 0, 0, 0,
+        50, 50, 50, 50, 50, 50, 50, 50,
+        10, 10, 20, 30, 30, 20, 10, 10,
+        5, 5, 10, 25, 25, 10, 5, 5,
+        0, 0, 0, 20, 20, 0, 0, 0,
+        5, -5, -10, 0, 0, -10, -5, 5,
+        5, 10, 10, -20, -20, 10, 10, 5,
+        0, 0, 0, 0, 0, 0, 0, 0
+    };
+    private static final int[] KNIGHT_TABLE = {
+        -50, -40, -30, -30, -30, -30, -40, -50,
+        -40, -20, 0, 0, 0, 0, -20, -40,
+        -30, 0, 10, 15, 15, 10, 0, -30,
+        -30, 5, 15, 20, 20, 15, 5, -30,
+        -30, 0, 15, 20, 20, 15, 0, -30,
+        -30, 5, 10, 15, 15, 10, 5, -30,
+        -40, -20, 0, 5, 5, 0, -20, -40,
+        -50, -40, -30, -30, -30, -30, -40, -50
+    };
+    private static final int[] BISHOP_TABLE = {
+        -20, -10, -10, -10, -10, -10, -10, -20,
+        -10, 0, 0, 0, 0, 0, 0, -10,
+        -10, 0, 5, 10, 10, 5, 0, -10,
+        -10, 5, 5, 10, 10, 5, 5, -10,
+        -10, 0, 10, 10, 10, 10, 0, -10,
+        -10, 10, 10, 10, 10, 10, 10, -10,
+        -10, 5, 0, 0, 0, 0, 5, -10,
+        -20, -10, -10, -10, -10, -10, -10, -20
+    };
+    private static final int[] ROOK_TABLE = {
+        0, 0, 0, 0, 0, 0, 0, 0,
+        5, 10, 10, 10, 10, 10, 10, 5,
+        -5, 0, 0, 0, 0, 0, 0, -5,
+        -5, 0, 0, 0, 0, 0, 0, -5,
+        -5, 0, 0, 0, 0, 0, 0, -5,
+        -5, 0, 0, 0, 0, 0, 0, -5,
+        -5, 0, 0, 0, 0, 0, 0, -5,
+        0, 0, 0, 5, 5, 0, 0, 0
+    };
+    private static final int[] QUEEN_TABLE = {
+        -20, -10, -10, -5, -5, -10, -10, -20,
+        -10, 0, 0, 0, 0, 0, 0, -10,
+        -10, 0, 5, 5, 5, 5, 0, -10,
+        -5, 0, 5, 5, 5, 5, 0, -5,
+        0, 0, 5, 5, 5, 5, 0, -5,
+        -10, 5, 5, 5, 5, 5, 0, -10,
+        -10, 0, 5, 0, 0, 0, 0, -10,
+        -20, -10, -10, -5, -5, -10, -10, -20
+    };
+    private static final int[] KING_TABLE = {
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -20, -30, -30, -40, -40, -30, -30, -20,
+        -10, -20, -20, -20, -20, -20, -20, -10,
+        20, 20, 0, 0, 0, 0, 20, 20,
+        20, 30, 10, 0, 0, 10, 30, 20
+    };
+
+    static {
+        int[][] tables = new int[PIECE_INDEX_COUNT][];
+        tables[PAWN_INDEX] = PAWN_TABLE;
+        tables[KNIGHT_INDEX] = KNIGHT_TABLE;
+        tables[BISHOP_INDEX] = BISHOP_TABLE;
+        tables[ROOK_INDEX] = ROOK_TABLE;
+        tables[QUEEN_INDEX] = QUEEN_TABLE;
+        tables[KING_INDEX] = KING_TABLE;
+        for (int index = PAWN_INDEX; index < PIECE_INDEX_COUNT; index++) {
+            MATERIAL_VALUES[index] = (int) Math.round(PIECE_VALUE[INDEX_TYPE[index] & NO_COLOR_MASK] * 100);
+            for (int square = 0; square < 64; square++) {
+                int row = Bitboards.row(square);
+                int col = Bitboards.column(square);
+                // The tables start with the eighth row, black sees them mirrored
+                POSITION_VALUES[WHITE][index][square] = tables[index][(MAX_IDX - row) * 8 + col];
+                POSITION_VALUES[BLACK][index][square] = tables[index][row * 8 + col];
+            }
+        }
+    }
+}
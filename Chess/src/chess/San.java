@@ -0,0 +1,256 @@
+package chess;
+
+import static chess.Globals.*;
+import java.util.List;
+
+/**
+ * Standard Algebraic Notation (SAN) as used by PGN and EPD, e.g. "Nbd7",
+ * "exd6", "e8=Q+" or "O-O". Moves are matched against the legal moves of
+ * the position, so only as much of a move needs to be written as is needed
+ * to tell it apart from the others.
+ */
+public final class San {
+
+    private static final int PAWN_TYPE = PAWN & NO_COLOR_MASK;
+    private static final int KING_TYPE = KING & NO_COLOR_MASK;
+
+    private San() {
+    }
+
+    /**
+     * @param board the position before the move
+     * @param move a legal move of the position
+     * @return the move in SAN, with "+" or "#" if it checks or mates
+     */
+    public static String toSan(Board board, Move move) {
+        return toSan(board, move, board.getValidMoves());
+    }
+
+    /**
+     * @param board the position before the move
+     * @param move a legal move of the position
+     * @param legalMoves all legal moves of the position, to spare generating
+     * them again for every move
+     * @return the move in SAN, with "+" or "#" if it checks or mates
+     */
+    public static String toSan(Board board, Move move, List<Move> legalMoves) {
+        StringBuilder san = new StringBuilder(8);
+        int piece = move.type & NO_COLOR_MASK;
+        if (piece == KING_TYPE && Math.abs(move.destCol - move.sourceCol) > 1) {
+            san.append(move.destCol > move.sourceCol ? "O-O" : "O-O-O");
+        } else {
+            if (piece == PAWN_TYPE) {
+                if (move.isHit) {
+                    san.append(Board.columnName(move.sourceCol));
+                }
+            } else {
+                san.append(pieceLetter(piece));
+                appendDisambiguation(san, move, legalMoves);
+            }
+            if (move.isHit) {
+                san.append('x');
+            }
+            san.append(Board.columnName(move.destCol)).append(move.destRow + 1);
+            if ((move.newType & NO_COLOR_MASK) != piece) {
+                san.append('=').append(pieceLetter(move.newType & NO_COLOR_MASK));
+            }
+        }
+        board.makeMove(move);
+        GameState state = board.gameState();
+        if (state == GameState.CHECKMATE) {
+            san.append('#');
+        } else if (board.isCheck(board.getColorToMove())) {
+            san.append('+');
+        }
+        board.unmakeMove();
+        return san.toString();
+    }
+
+    // The file, the rank or both of the source, if another piece of the same kind can reach the destination
+    private static void appendDisambiguation(StringBuilder san, Move move, List<Move> legalMoves) {
+        boolean ambiguous = false;
+        boolean sameCol = false;
+        boolean sameRow = false;
+        for (Move other : legalMoves) {
+            if ((other.type & NO_COLOR_MASK) == (move.type & NO_COLOR_MASK) && other.destCol == move.destCol
+                    && other.destRow == move.destRow
+                    && (other.sourceCol != move.sourceCol || other.sourceRow != move.sourceRow)) {
+                ambiguous = true;
+                sameCol |= other.sourceCol == move.sourceCol;
+                sameRow |= other.sourceRow == move.sourceRow;
+            }
+        }
+        if (!ambiguous) {
+            return;
+        }
+        if (!sameCol) {
+            san.append(Board.columnName(move.sourceCol));
+        } else if (!sameRow) {
+            san.append(move.sourceRow + 1);
+        } else {
+            san.append(Board.columnName(move.sourceCol)).append(move.sourceRow + 1);
+        }
+    }
+
+    /**
+     * Finds the legal move written in SAN. Check and annotation marks are
+     * ignored, as are a missing "=" before the promotion piece and castling
+     * written with zeros.
+     *
+     * @param board the position before the move
+     * @param text the move in SAN
+     * @return the move, null if no legal move or more than one matches
+     */
+    public static Move fromSan(Board board, String text) {
+        int move = toPackedMove(board, text, new int[MAX_MOVES]);
+        return move == PackedMove.NO_MOVE ? null : PackedMove.toMove(move);
+    }
+
+    /**
+     * Like {@link #fromSan(Board, String)}, but matches the moves of the move
+     * generator instead of Move objects, which is several times faster when
+     * reading many moves
+     *
+     * @param board the position before the move
+     * @param text the move in SAN
+     * @param buffer receives the legal moves, room for MAX_MOVES is enough
+     * @return the packed move, NO_MOVE if no legal move or more than one
+     * matches
+     */
+    public static int toPackedMove(Board board, String text, int[] buffer) {
+        Description description = Description.parse(text);
+        if (description == null) {
+            return PackedMove.NO_MOVE;
+        }
+        int end = board.generateMoves(buffer, 0);
+        int found = PackedMove.NO_MOVE;
+        for (int i = 0; i < end; i++) {
+            if (description.matches(buffer[i])) {
+                if (found != PackedMove.NO_MOVE) {
+                    return PackedMove.NO_MOVE;
+                }
+                found = buffer[i];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param text the move in SAN
+     * @param legalMoves all legal moves of the position
+     * @return the move of legalMoves the text stands for, null if none or
+     * more than one matches
+     */
+    public static Move fromSan(String text, List<Move> legalMoves) {
+        Description description = Description.parse(text);
+        if (description == null) {
+            return null;
+        }
+        Move found = null;
+        for (Move move : legalMoves) {
+            if (description.matches(move)) {
+                if (found != null) {
+                    return null;
+                }
+                found = move;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * What a move in SAN tells about the move, all the rest has to follow
+     * from the legal moves of the position
+     */
+    private static final class Description {
+
+        private static final int NO_CASTLING = 0;
+        private static final int KINGSSIDE = 1;
+        private static final int QUEENSSIDE = 2;
+
+        private int castling = NO_CASTLING;
+        private int pieceIndex = PAWN_INDEX;
+        private int promotionIndex = NO_PIECE_INDEX;
+        private int dest;
+        // -1 if the move does not give them
+        private int sourceCol = -1;
+        private int sourceRow = -1;
+
+        /**
+         * @return the description, null if the text is no move in SAN
+         */
+        static Description parse(String text) {
+            Description description = new Description();
+            String san = text.trim();
+            int end = san.length();
+            while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0) {
+                end--;
+            }
+            san = san.substring(0, end).replace('0', 'O');
+            if (san.equals("O-O") || san.equals("O-O-O")) {
+                description.castling = san.equals("O-O") ? KINGSSIDE : QUEENSSIDE;
+                return description;
+            }
+            int index = 0;
+            if (!san.isEmpty() && "NBRQK".indexOf(san.charAt(0)) >= 0) {
+                description.pieceIndex = TYPE_INDEX[san.charAt(0) << 1];
+                index++;
+            }
+            if (description.pieceIndex == PAWN_INDEX && !san.isEmpty() && "NBRQ".indexOf(san.charAt(san.length() - 1)) >= 0) {
+                description.promotionIndex = TYPE_INDEX[san.charAt(san.length() - 1) << 1];
+                int promotion = san.lastIndexOf('=');
+                san = san.substring(0, promotion == san.length() - 2 ? promotion : san.length() - 1);
+            }
+            // What is left is [file][rank][x]file rank, the destination comes last
+            if (san.length() - index < 2) {
+                return null;
+            }
+            int destCol = san.charAt(san.length() - 2) - 'a';
+            int destRow = san.charAt(san.length() - 1) - '1';
+            if (destCol < MIN_IDX || destCol > MAX_IDX || destRow < MIN_IDX || destRow > MAX_IDX) {
+                return null;
+            }
+            description.dest = Bitboards.square(destCol, destRow);
+            for (int i = index; i < san.length() - 2; i++) {
+                char c = san.charAt(i);
+                if (c >= 'a' && c <= 'h') {
+                    description.sourceCol = c - 'a';
+                } else if (c >= '1' && c <= '8') {
+                    description.sourceRow = c - '1';
+                } else if (c != 'x' && c != '-') {
+                    return null;
+                }
+            }
+            return description;
+        }
+
+        boolean matches(int move) {
+            int source = PackedMove.getSource(move);
+            if (castling != NO_CASTLING) {
+                return PackedMove.isCastling(move)
+                        && (Bitboards.column(PackedMove.getDest(move)) > Bitboards.column(source)) == (castling == KINGSSIDE);
+            }
+            return PackedMove.getPiece(move) == pieceIndex && PackedMove.getDest(move) == dest
+                    && PackedMove.getPromotion(move) == promotionIndex
+                    && (sourceCol < 0 || Bitboards.column(source) == sourceCol)
+                    && (sourceRow < 0 || Bitboards.row(source) == sourceRow);
+        }
+
+        boolean matches(Move move) {
+            int piece = TYPE_INDEX[move.type & NO_COLOR_MASK];
+            if (castling != NO_CASTLING) {
+                return piece == KING_INDEX && Math.abs(move.destCol - move.sourceCol) > 1
+                        && (move.destCol > move.sourceCol) == (castling == KINGSSIDE);
+            }
+            int promotion = TYPE_INDEX[move.newType & NO_COLOR_MASK];
+            return piece == pieceIndex && Bitboards.square(move.destCol, move.destRow) == dest
+                    && (promotion == piece ? NO_PIECE_INDEX : promotion) == promotionIndex
+                    && (sourceCol < 0 || move.sourceCol == sourceCol)
+                    && (sourceRow < 0 || move.sourceRow == sourceRow);
+        }
+    }
+
+    private static char pieceLetter(int type) {
+        return (char) (type >>> 1);
+    }
+}
@@ -0,0 +1,363 @@
+package chess;
+
+import agents.MyPlayer;
+import agents.Player;
+import agents.Pruning;
+import agents.RandomPlayer;
+import static chess.Globals.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Plays games between two players without printing the boards, several at
+ * once. Every opening is played twice, once with either player as white.
+ * After every game the score, an Elo estimate and the log likelihood ratio
+ * of a sequential probability ratio test (SPRT) are printed, and the
+ * tournament ends early once the test accepts either hypothesis.
+ *
+ * Usage: Tournament [options] first second, a player is "random", "my", or
+ * "my" followed by "-TECHNIQUE" for every {@link Pruning} technique to turn
+ * off, e.g. "my-NULL_MOVE-FUTILITY", or the class name of any Player with a
+ * constructor without parameters. With -pgn, every finished game is
+ * appended to the given file.
+ */
+public class Tournament {
+
+    private static final String[] OPENINGS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+        "rnbqkbnr/pp1ppppp/8/2p5/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+        "rnbqkbnr/pppp1ppp/4p3/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+        "rnbqkbnr/pp1ppppp/2p5/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2",
+        "rnbqkbnr/ppp1pppp/8/3p4/3P4/8/PPP1PPPP/RNBQKBNR w KQkq - 0 2",
+        "rnbqkb1r/pppppppp/5n2/8/3P4/8/PPP1PPPP/RNBQKBNR w KQkq - 1 2",
+        "rnbqkbnr/pppppppp/8/8/2P5/8/PP1PPPPP/RNBQKBNR b KQkq - 0 1",
+        "rnbqkbnr/pppppppp/8/8/8/5N2/PPPPPPPP/RNBQKB1R b KQkq - 1 1",
+        "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+        "r1bqkbnr/pppp1ppp/2n5/1B2p3/4P3/5N2/PPPP1PPP/RNBQK2R b KQkq - 3 3",
+        "rnbqkb1r/pppp1ppp/5n2/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+        "rnbqkbnr/pp2pppp/3p4/2p5/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 0 3",
+        "rnbqkbnr/ppp2ppp/4p3/3p4/3PP3/8/PPP2PPP/RNBQKBNR w KQkq - 0 3",
+        "rnbqkbnr/pp2pppp/2p5/3p4/3PP3/8/PPP2PPP/RNBQKBNR w KQkq - 0 3",
+        "rnbqkbnr/ppp1pppp/8/3p4/2PP4/8/PP2PPPP/RNBQKBNR b KQkq - 0 2",
+        "rnbqkb1r/pppppp1p/5np1/8/2PP4/8/PP2PPPP/RNBQKBNR w KQkq - 0 3",
+        "rnbqkb1r/pppp1ppp/4pn2/8/2PP4/8/PP2PPPP/RNBQKBNR w KQkq - 0 3",
+        "rnbqkbnr/pppp1ppp/8/4p3/2P5/8/PP1PPPPP/RNBQKBNR w KQkq - 0 2",
+        "rnbqkbnr/ppp1pppp/8/3p4/8/5N2/PPPPPPPP/RNBQKB1R w KQkq - 0 2"
+    };
+    // Games still running after this many plies are drawn
+    private static final int MAX_PLIES = 400;
+    private static final int MOVE_TIME_FOR_NODE_LIMIT = 1_000_000;
+
+    private static final int WIN = 0;
+    private static final int DRAW = 1;
+    private static final int LOSS = 2;
+
+    public static void main(String[] args) {
+        int games = 100;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        int time = 100;
+        long nodes = 0;
+        int hash = 16;
+        double elo0 = 0;
+        double elo1 = 5;
+        double alpha = 0.05;
+        double beta = 0.05;
+        String openingFile = null;
+        String pgnFile = null;
+        List<String> players = new ArrayList<>();
+        Supplier<Player> first;
+        Supplier<Player> second;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-games":
+                        games = Integer.parseInt(args[++i]);
+                        break;
+                    case "-concurrency":
+                        concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "-time":
+                        time = Integer.parseInt(args[++i]);
+                        break;
+                    case "-nodes":
+                        nodes = Long.parseLong(args[++i]);
+                        break;
+                    case "-hash":
+                        hash = Integer.parseInt(args[++i]);
+                        break;
+                    case "-sprt":
+                        elo0 = Double.parseDouble(args[++i]);
+                        elo1 = Double.parseDouble(args[++i]);
+                        break;
+                    case "-alpha":
+                        alpha = Double.parseDouble(args[++i]);
+                        break;
+                    case "-beta":
+                        beta = Double.parseDouble(args[++i]);
+                        break;
+                    case "-openings":
+                        openingFile = args[++i];
+                        break;
+                    case "-pgn":
+                        pgnFile = args[++i];
+                        break;
+                    default:
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        players.add(args[i]);
+                }
+            }
+            if (players.size() != 2) {
+                throw new IllegalArgumentException("two players expected");
+            }
+            first = playerFactory(players.get(0), hash, nodes);
+            second = playerFactory(players.get(1), hash, nodes);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.out.println("Usage: Tournament [-games N] [-concurrency N] [-time ms | -nodes N] [-hash MB]");
+            System.out.println("                  [-sprt elo0 elo1] [-alpha a] [-beta b] [-openings file] [-pgn file]");
+            System.out.println("                  first second");
+            System.out.println("A player is random, my, my-TECHNIQUE... with pruning techniques turned off, or a Player class name");
+            System.exit(2);
+            return;
+        }
+        List<String> openings = new ArrayList<>();
+        if (openingFile == null) {
+            for (String fen : OPENINGS) {
+                openings.add(fen);
+            }
+        } else {
+            try {
+                for (String line : Files.readAllLines(Paths.get(openingFile), StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        openings.add(line);
+                    }
+                }
+            } catch (IOException ex) {
+                System.out.println("Can not read " + openingFile + ": " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        PgnWriter pgn = null;
+        if (pgnFile != null) {
+            try {
+                pgn = new PgnWriter(Files.newBufferedWriter(Paths.get(pgnFile), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            } catch (IOException ex) {
+                System.out.println("Can not write " + pgnFile + ": " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        int moveTime = nodes > 0 ? MOVE_TIME_FOR_NODE_LIMIT : time;
+        System.out.println(players.get(0) + " vs " + players.get(1) + ", " + games + " games, "
+                + (nodes > 0 ? nodes + " nodes" : time + " ms") + " per move, " + concurrency + " at once");
+
+        String[] names = {players.get(0), players.get(1)};
+        PgnWriter gameRecord = pgn;
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        CompletionService<int[]> results = new ExecutorCompletionService<>(pool);
+        for (int game = 0; game < games; game++) {
+            int number = game;
+            String opening = openings.get(game / 2 % openings.size());
+            boolean firstIsWhite = game % 2 == 0;
+            results.submit(() -> {
+                if (cancelled.get()) {
+                    return null;
+                }
+                int result = play(opening, first.get(), second.get(), firstIsWhite, moveTime, new Random(number), cancelled, names, gameRecord);
+                return new int[] {number, result};
+            });
+        }
+        Sprt sprt = new Sprt(elo0, elo1, alpha, beta);
+        int[] score = new int[3];
+        try {
+            for (int played = 0; played < games && !cancelled.get(); played++) {
+                int[] result = results.take().get();
+                if (result == null) {
+                    continue;
+                }
+                score[result[1]]++;
+                int decision = sprt.decide(score[WIN], score[DRAW], score[LOSS]);
+                System.out.printf("Game %d: %s, score %d - %d - %d, %s, LLR %.2f (%.2f, %.2f)%n", result[0] + 1,
+                        result[1] == WIN ? "1-0" : result[1] == DRAW ? "1/2" : "0-1", score[WIN], score[LOSS], score[DRAW],
+                        eloToString(score[WIN], score[DRAW], score[LOSS]), sprt.llr(score[WIN], score[DRAW], score[LOSS]),
+                        sprt.lowerBound(), sprt.upperBound());
+                if (decision != 0) {
+                    System.out.println("SPRT: " + (decision > 0 ? "H1" : "H0") + " accepted");
+                    cancelled.set(true);
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            System.out.println("Tournament failed: " + ex);
+            cancelled.set(true);
+        }
+        pool.shutdownNow();
+        int total = score[WIN] + score[DRAW] + score[LOSS];
+        System.out.printf("Score of %s vs %s: %d - %d - %d [%.3f] %d%n", players.get(0), players.get(1),
+                score[WIN], score[LOSS], score[DRAW], (score[WIN] + score[DRAW] / 2.0) / Math.max(1, total), total);
+        System.out.println(eloToString(score[WIN], score[DRAW], score[LOSS]));
+        System.exit(0);
+    }
+
+    private static Supplier<Player> playerFactory(String name, int hash, long nodes) {
+        if (name.equals("random")) {
+            return RandomPlayer::new;
+        }
+        if (name.equals("my") || name.startsWith("my-")) {
+            Set<Pruning> pruning = EnumSet.allOf(Pruning.class);
+            for (String technique : name.split("-")) {
+                if (!technique.equals("my")) {
+                    pruning.remove(Pruning.valueOf(technique));
+                }
+            }
+            return () -> {
+                // One thread per player, the games themselves run in parallel
+                MyPlayer player = new MyPlayer(hash, 1, pruning);
+                player.setNodeLimit(nodes);
+                return player;
+            };
+        }
+        try {
+            Class<? extends Player> type = Class.forName(name).asSubclass(Player.class);
+            type.getConstructor();
+            return () -> {
+                try {
+                    return type.getConstructor().newInstance();
+                } catch (ReflectiveOperationException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            };
+        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException ex) {
+            throw new IllegalArgumentException("Unknown player " + name);
+        }
+    }
+
+    /**
+     * Plays one game from the given position
+     *
+     * @param names names of the first and the second player, for the PGN
+     * @param pgn receives the game once it is finished, null if none
+     * @return WIN, DRAW or LOSS from the point of view of the first player
+     */
+    private static int play(String opening, Player first, Player second, boolean firstIsWhite, int moveTime, Random random,
+            AtomicBoolean cancelled, String[] names, PgnWriter pgn) throws IOException {
+        Board board = new Board(opening);
+        String startFen = board.toFen();
+        try {
+            for (int ply = 0; ply < MAX_PLIES && board.gameState() == GameState.ONGOING && !cancelled.get(); ply++) {
+                int color = board.getColorToMove();
+                Player player = (color == WHITE) == firstIsWhite ? first : second;
+                board.executeMove(player.chooseMove(board, color, moveTime, random));
+            }
+        } finally {
+            for (Player player : new Player[] {first, second}) {
+                if (player instanceof MyPlayer) {
+                    ((MyPlayer) player).shutdown();
+                }
+            }
+        }
+        if (pgn != null && !cancelled.get()) {
+            PgnGame game = PgnGame.of(startFen, board, names[firstIsWhite ? 0 : 1], names[firstIsWhite ? 1 : 0]);
+            if (board.gameState() == GameState.ONGOING) {
+                // Drawn after MAX_PLIES
+                Map<String, String> tags = new LinkedHashMap<>(game.getTags());
+                tags.put("Result", PgnGame.DRAW);
+                tags.put("Termination", "adjudication");
+                game = new PgnGame(tags, game.getMoves());
+            }
+            pgn.write(game);
+        }
+        if (board.gameState() != GameState.CHECKMATE) {
+            return DRAW;
+        }
+        // The color to move is mated
+        return (board.getColorToMove() == WHITE) == firstIsWhite ? LOSS : WIN;
+    }
+
+    private static double eloFromScore(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    // Elo difference with a 95% confidence interval, from the score and its standard error
+    private static String eloToString(int wins, int draws, int losses) {
+        int games = wins + draws + losses;
+        if (games == 0 || wins + draws == 0 || losses + draws == 0) {
+            return "Elo difference: not measurable, all games ended alike";
+        }
+        double score = (wins + draws / 2.0) / games;
+        double deviation = Math.sqrt((wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2)
+                + losses * Math.pow(score, 2)) / games / games);
+        double low = eloFromScore(Math.max(1e-6, score - 1.96 * deviation));
+        double high = eloFromScore(Math.min(1 - 1e-6, score + 1.96 * deviation));
+        return String.format("Elo difference: %.1f +/- %.1f", eloFromScore(score), (high - low) / 2);
+    }
+
+    /**
+     * Sequential probability ratio test of the hypotheses H0, the Elo
+     * difference is elo0, against H1, it is elo1, using the normal
+     * approximation of the game results
+     */
+    private static class Sprt {
+
+        private final double score0;
+        private final double score1;
+        private final double lower;
+        private final double upper;
+
+        Sprt(double elo0, double elo1, double alpha, double beta) {
+            score0 = 1 / (1 + Math.pow(10, -elo0 / 400));
+            score1 = 1 / (1 + Math.pow(10, -elo1 / 400));
+            lower = Math.log(beta / (1 - alpha));
+            upper = Math.log((1 - beta) / alpha);
+        }
+
+        double lowerBound() {
+            return lower;
+        }
+
+        double upperBound() {
+            return upper;
+        }
+
+        double llr(int wins, int draws, int losses) {
+            // Half a game of every result, so one sided results still have a variance
+            double w = wins + 0.5;
+            double d = draws + 0.5;
+            double l = losses + 0.5;
+            double games = w + d + l;
+            double score = (w + d / 2) / games;
+            double variance = (w * Math.pow(1 - score, 2) + d * Math.pow(0.5 - score, 2) + l * Math.pow(score, 2)) / games;
+            return games * (score1 - score0) * (2 * score - score0 - score1) / (2 * variance);
+        }
+
+        /**
+         * @return 1 if H1 is accepted, -1 if H0 is accepted, 0 to play on
+         */
+        int decide(int wins, int draws, int losses) {
+            double llr = llr(wins, draws, losses);
+            return llr >= upper ? 1 : llr <= lower ? -1 : 0;
+        }
+    }
+}
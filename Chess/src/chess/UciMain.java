@@ -0,0 +1,370 @@
+package chess;
+
+import agents.MyPlayer;
+import agents.SearchListener;
+import static chess.Globals.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Lets MyPlayer play through the Universal Chess Interface (UCI) on
+ * standard input and output, so it can be used by chess GUIs and testing
+ * tools. The player and its transposition table live as long as the process,
+ * over all moves and games.
+ *
+ * Every search is started in the background with {@link MyPlayer#ponder}
+ * right away, a thread calling chooseMove then continues it with its limits,
+ * at once for a normal go, only after ponderhit or stop for go ponder and go
+ * infinite.
+ *
+ * Started with the argument "bench", or given the command "bench [depth]",
+ * it runs {@link Bench} instead, as testing frameworks expect.
+ */
+public class UciMain {
+
+    private static final String NAME = "ChessProgramming";
+    private static final String AUTHOR = "WilliamFrei";
+    // Time kept back per move for the communication with the GUI
+    private static final int MOVE_OVERHEAD = 30;
+    // Moves the remaining time is spread over if the GUI does not tell
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+    // A move may take this many times its share of the remaining time, since the time manager rarely uses all of it
+    private static final int MAX_SHARES_PER_MOVE = 3;
+
+    private MyPlayer player;
+    private int hash = MyPlayer.DEFAULT_HASH_MEGABYTES;
+    private int threads = 1;
+    private final Random random = new Random();
+    private Board board = new Board();
+    // The thread waiting for the search and printing the best move, null if none runs
+    private Thread searchThread;
+    // Set by go ponder and go infinite until ponderhit or stop, the budget of the move is kept for ponderhit
+    private boolean waiting;
+    private int waitingBudget;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            Bench.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        new UciMain().run();
+    }
+
+    private void run() throws IOException {
+        player = createPlayer();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] tokens = line.trim().split("\\s+");
+            switch (tokens[0]) {
+                case "uci":
+                    send("id name " + NAME);
+                    send("id author " + AUTHOR);
+                    send("option name Hash type spin default " + MyPlayer.DEFAULT_HASH_MEGABYTES + " min 1 max 4096");
+                    send("option name Threads type spin default 1 min 1 max 256");
+                    send("option name Ponder type check default false");
+                    send("uciok");
+                    break;
+                case "isready":
+                    send("readyok");
+                    break;
+                case "setoption":
+                    setOption(tokens);
+                    break;
+                case "ucinewgame":
+                    // The transposition table is kept, positions of the last game may come again
+                    finishSearch();
+                    board = new Board();
+                    break;
+                case "position":
+                    finishSearch();
+                    position(tokens);
+                    break;
+                case "go":
+                    finishSearch();
+                    go(tokens);
+                    break;
+                case "ponderhit":
+                    if (waiting) {
+                        waiting = false;
+                        startSearchThread(waitingBudget);
+                    }
+                    break;
+                case "stop":
+                    stopSearch();
+                    break;
+                case "bench":
+                    finishSearch();
+                    bench(tokens);
+                    break;
+                case "quit":
+                    finishSearch();
+                    player.shutdown();
+                    return;
+                default:
+                    // Unknown commands are ignored, as the protocol demands
+                    break;
+            }
+        }
+        finishSearch();
+        player.shutdown();
+    }
+
+    private MyPlayer createPlayer() {
+        MyPlayer created = new MyPlayer(hash, threads);
+        created.setSearchListener(new SearchListener() {
+            @Override
+            public void iterationCompleted(int depth, int score, long nodes, long nanos, List<Move> principalVariation) {
+                StringBuilder info = new StringBuilder();
+                info.append("info depth ").append(depth).append(" score ").append(scoreToString(score));
+                info.append(" nodes ").append(nodes).append(" nps ").append(nodes * 1_000_000_000L / Math.max(1, nanos));
+                info.append(" time ").append(nanos / 1_000_000).append(" pv");
+                for (Move move : principalVariation) {
+                    info.append(' ').append(toUci(move));
+                }
+                send(info.toString());
+            }
+        });
+        return created;
+    }
+
+    private void setOption(String[] tokens) {
+        // setoption name <id> value <x>
+        String name = null;
+        String value = null;
+        for (int i = 1; i < tokens.length - 1; i++) {
+            if (tokens[i].equals("name")) {
+                name = tokens[i + 1];
+            } else if (tokens[i].equals("value")) {
+                value = tokens[i + 1];
+            }
+        }
+        if (name == null || value == null) {
+            return;
+        }
+        finishSearch();
+        try {
+            switch (name.toLowerCase()) {
+                case "hash":
+                    hash = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                default:
+                    // Ponder only tells that the GUI may send go ponder
+                    return;
+            }
+        } catch (NumberFormatException ex) {
+            send("info string invalid value " + value);
+            return;
+        }
+        player.shutdown();
+        player = createPlayer();
+    }
+
+    // position [startpos | fen <fen>] [moves <move>...]
+    private void position(String[] tokens) {
+        int i = 1;
+        Board position;
+        try {
+            if (tokens.length > 1 && tokens[1].equals("fen")) {
+                StringBuilder fen = new StringBuilder();
+                for (i = 2; i < tokens.length && !tokens[i].equals("moves"); i++) {
+                    fen.append(tokens[i]).append(' ');
+                }
+                position = new Board(fen.toString());
+            } else {
+                position = new Board();
+                i = 2;
+            }
+        } catch (IllegalArgumentException ex) {
+            // The engine keeps running with the previous position
+            send("info string invalid position: " + ex.getMessage());
+            return;
+        }
+        if (i < tokens.length && tokens[i].equals("moves")) {
+            for (i++; i < tokens.length; i++) {
+                Move move = fromUci(position, tokens[i]);
+                if (move == null) {
+                    send("info string illegal move " + tokens[i]);
+                    return;
+                }
+                position.executeMove(move);
+            }
+        }
+        board = position;
+    }
+
+    // go [ponder] [wtime x] [btime x] [winc x] [binc x] [movestogo x] [movetime x] [depth x] [nodes x] [infinite]
+    private void go(String[] tokens) {
+        boolean ponder = false;
+        boolean infinite = false;
+        long[] times = new long[2];
+        long[] increments = new long[2];
+        int movesToGo = 0;
+        int moveTime = 0;
+        int depth = 0;
+        long nodes = 0;
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                switch (tokens[i]) {
+                    case "ponder":
+                        ponder = true;
+                        break;
+                    case "infinite":
+                        infinite = true;
+                        break;
+                    case "wtime":
+                        times[WHITE] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "btime":
+                        times[BLACK] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "winc":
+                        increments[WHITE] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "binc":
+                        increments[BLACK] = Long.parseLong(tokens[++i]);
+                        break;
+                    case "movestogo":
+                        movesToGo = Integer.parseInt(tokens[++i]);
+                        break;
+                    case "movetime":
+                        moveTime = Integer.parseInt(tokens[++i]);
+                        break;
+                    case "depth":
+                        depth = Integer.parseInt(tokens[++i]);
+                        break;
+                    case "nodes":
+                        nodes = Long.parseLong(tokens[++i]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            send("info string invalid go command");
+        }
+        int color = board.getColorToMove();
+        int budget;
+        if (moveTime > 0) {
+            budget = moveTime - MOVE_OVERHEAD;
+        } else if (times[color] > 0) {
+            long share = times[color] / (movesToGo > 0 ? movesToGo : DEFAULT_MOVES_TO_GO) + increments[color] * 3 / 4;
+            budget = (int) Math.min(share * MAX_SHARES_PER_MOVE, times[color] / 2) - MOVE_OVERHEAD;
+        } else {
+            // Only limited by depth or nodes, or until stop
+            budget = Integer.MAX_VALUE;
+            infinite |= depth == 0 && nodes == 0;
+        }
+        budget = Math.max(1, budget);
+        player.setDepthLimit(depth);
+        player.setNodeLimit(nodes);
+        player.ponder(board, random);
+        if (ponder || infinite) {
+            waiting = true;
+            waitingBudget = budget;
+        } else {
+            startSearchThread(budget);
+        }
+    }
+
+    private void startSearchThread(int budget) {
+        Board position = board;
+        searchThread = new Thread(() -> {
+            Move move = player.chooseMove(position, position.getColorToMove(), budget, random);
+            List<Move> line = player.getLastPrincipalVariation();
+            if (move == null) {
+                send("bestmove 0000");
+            } else if (line.size() >= 2 && toUci(line.get(0)).equals(toUci(move))) {
+                send("bestmove " + toUci(move) + " ponder " + toUci(line.get(1)));
+            } else {
+                send("bestmove " + toUci(move));
+            }
+        }, "UCI search");
+        searchThread.start();
+    }
+
+    private void stopSearch() {
+        if (waiting) {
+            // The search is stopped, chooseMove only collects its result
+            waiting = false;
+            player.stop();
+            startSearchThread(1);
+        } else if (searchThread != null) {
+            player.stop();
+        }
+    }
+
+    // Ends a running search, its best move is still sent
+    private void finishSearch() {
+        stopSearch();
+        if (searchThread != null) {
+            try {
+                searchThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            searchThread = null;
+        }
+    }
+
+    // Searches with a player of its own, the signature needs a single thread and the default table size
+    private void bench(String[] tokens) {
+        int depth = Bench.DEFAULT_DEPTH;
+        if (tokens.length > 1) {
+            try {
+                depth = Integer.parseInt(tokens[1]);
+            } catch (NumberFormatException ex) {
+                send("info string invalid depth " + tokens[1]);
+                return;
+            }
+        }
+        MyPlayer benchPlayer = new MyPlayer(Bench.DEFAULT_HASH_MEGABYTES, 1);
+        synchronized (System.out) {
+            Bench.run(benchPlayer, depth, System.out);
+            System.out.flush();
+        }
+        benchPlayer.shutdown();
+    }
+
+    private static String scoreToString(int score) {
+        if (MyPlayer.isMateScore(score)) {
+            int plies = MyPlayer.MATE_SCORE - Math.abs(score);
+            int moves = (plies + 1) / 2;
+            return "mate " + (score > 0 ? moves : -moves);
+        }
+        return "cp " + score;
+    }
+
+    private static String toUci(Move move) {
+        StringBuilder sb = new StringBuilder(5);
+        sb.append(Board.columnName(move.sourceCol)).append(move.sourceRow + 1);
+        sb.append(Board.columnName(move.destCol)).append(move.destRow + 1);
+        if ((move.newType & NO_COLOR_MASK) != (move.type & NO_COLOR_MASK)) {
+            sb.append(Character.toLowerCase((char) ((move.newType & NO_COLOR_MASK) >>> 1)));
+        }
+        return sb.toString();
+    }
+
+    private static Move fromUci(Board board, String text) {
+        for (Move move : board.getValidMoves()) {
+            if (toUci(move).equals(text)) {
+                return move;
+            }
+        }
+        return null;
+    }
+
+    private static void send(String message) {
+        synchronized (System.out) {
+            System.out.println(message);
+            System.out.flush();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package chess;
+
+import static chess.Globals.*;
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of positions. The key of a position is the
+ * xor of the keys of all pieces on their squares, the castling rights, the en
+ * passant file and the side to move, so {@link Board} can update it
+ * incrementally.
+ */
+public class Zobrist {
+
+    public static final long[][][] PIECE_KEYS = new long[2][PIECE_INDEX_COUNT][64];
+    // Indexed by the castling rights bitmask of Board
+    public static final long[] CASTLING_KEYS = new long[16];
+    public static final long[] EN_PASSANT_KEYS = new long[8];
+    // Included when black is to move
+    public static final long SIDE_KEY;
+
+    static {
+        // Fixed seed, so keys stay comparable between runs, e.g. for stored game archives
+        Random random = new Random(0x2B0B_12157L);
+        for (int color : COLORS) {
+            for (int index = PAWN_INDEX; index < PIECE_INDEX_COUNT; index++) {
+                for (int square = 0; square < 64; square++) {
+                    PIECE_KEYS[color][index][square] = random.nextLong();
+                }
+            }
+        }
+        for (int i = 0; i < CASTLING_KEYS.length; i++) {
+            CASTLING_KEYS[i] = random.nextLong();
+        }
+        for (int i = 0; i < EN_PASSANT_KEYS.length; i++) {
+            EN_PASSANT_KEYS[i] = random.nextLong();
+        }
+        SIDE_KEY = random.nextLong();
+    }
+
+    public static long pieceKey(byte figure, int square) {
+        return PIECE_KEYS[figure & BLACK][TYPE_INDEX[figure & NO_COLOR_MASK]][square];
+    }
+}
@@ -0,0 +1,128 @@
+package chess.bench;
+
+import agents.MyPlayer;
+import chess.Board;
+import chess.Move;
+import static chess.Globals.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hot paths of Board and the static evaluation, measured per position. The
+ * board is never changed permanently, so every invocation sees the same
+ * position.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"start", "opening", "middlegame", "tactical", "endgame", "pawnEndgame"})
+    public String position;
+
+    private Board board;
+    private List<Move> moves;
+    private int[] moveBuffer;
+    private int color;
+
+    @Setup
+    public void setup() {
+        board = new Board(Positions.fen(position));
+        moves = board.getValidMoves();
+        moveBuffer = new int[MAX_MOVES];
+        color = board.getColorToMove();
+    }
+
+    @Benchmark
+    public List<Move> getValidMoves() {
+        return board.getValidMoves();
+    }
+
+    @Benchmark
+    public int generateMoves() {
+        return board.generateMoves(moveBuffer, 0);
+    }
+
+    @Benchmark
+    public int generateCaptures() {
+        return board.generateCaptures(moveBuffer, 0);
+    }
+
+    @Benchmark
+    public int staticExchange() {
+        int end = board.generateCaptures(moveBuffer, 0);
+        int sum = 0;
+        for (int i = 0; i < end; i++) {
+            sum += board.staticExchange(moveBuffer[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Board cloneIncompletely() {
+        return board.cloneIncompletely();
+    }
+
+    // Includes one cloneIncompletely per move, since executeMove can not be taken back
+    @Benchmark
+    public void executeMove(Blackhole bh) {
+        for (Move move : moves) {
+            Board clone = board.cloneIncompletely();
+            clone.executeMove(move);
+            bh.consume(clone);
+        }
+    }
+
+    @Benchmark
+    public long makeUnmakeMove() {
+        int end = board.generateMoves(moveBuffer, 0);
+        long keys = 0;
+        for (int i = 0; i < end; i++) {
+            board.makeMove(moveBuffer[i]);
+            keys ^= board.hashKey();
+            board.unmakeMove();
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public boolean isCheck() {
+        return board.isCheck(color);
+    }
+
+    // Board caches the game state per position, so classify the positions after every move like the search does
+    @Benchmark
+    public void gameState(Blackhole bh) {
+        int end = board.generateMoves(moveBuffer, 0);
+        for (int i = 0; i < end; i++) {
+            board.makeMove(moveBuffer[i]);
+            bh.consume(board.gameState());
+            board.unmakeMove();
+        }
+    }
+
+    @Benchmark
+    public int getFitness() {
+        return MyPlayer.getFitness(board, color);
+    }
+
+    @Benchmark
+    public String boardToString() {
+        return board.toString();
+    }
+}
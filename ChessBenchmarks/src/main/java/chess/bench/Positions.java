@@ -0,0 +1,29 @@
+package chess.bench;
+
+/**
+ * Representative positions for the benchmarks, from the opening to the
+ * endgame. The names are used as JMH parameter values, see the @Param of
+ * BoardBenchmark.
+ */
+public class Positions {
+
+    public static String fen(String name) {
+        switch (name) {
+            case "start":
+                return "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+            case "opening":
+                // Ruy Lopez after 3. Bb5
+                return "r1bqkbnr/pppp1ppp/2n5/1B2p3/4P3/5N2/PPPP1PPP/RNBQK2R b KQkq - 3 3";
+            case "middlegame":
+                return "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+            case "tactical":
+                return "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+            case "endgame":
+                return "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1";
+            case "pawnEndgame":
+                return "8/5k2/3p4/1p1Pp2p/pP2Pp1P/P4P1K/8/8 b - - 0 50";
+            default:
+                throw new IllegalArgumentException("Unknown position: " + name);
+        }
+    }
+}